@@ -1,6 +1,7 @@
 package client;
 
 import websocket.messages.LoadGame;
+import websocket.messages.MoveMade;
 import websocket.messages.Notification;
 import websocket.messages.ServerMessageError;
 
@@ -11,4 +12,6 @@ public interface ServerMessageObserver {
     void displayError(ServerMessageError error);
 
     void displayLoadGame(LoadGame loadGame);
+
+    void displayMoveMade(MoveMade moveMade);
 }
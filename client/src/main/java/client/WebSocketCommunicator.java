@@ -8,48 +8,73 @@ import jakarta.websocket.MessageHandler;
 import jakarta.websocket.Session;
 import jakarta.websocket.WebSocketContainer;
 import ui.Client;
+import websocket.BinaryProtocol;
+import websocket.MessageTypeAdapterFactory;
+import websocket.commands.UserGameCommand;
 import websocket.messages.LoadGame;
+import websocket.messages.MoveMade;
 import websocket.messages.Notification;
 import websocket.messages.ServerMessage;
 import websocket.messages.ServerMessageError;
 
 import java.net.URI;
+import java.nio.ByteBuffer;
 
 public class WebSocketCommunicator extends Endpoint {
 
     private final Session session;
-    private final Gson gson = new Gson();
+    private final Gson gson = MessageTypeAdapterFactory.newGson();
+    private final Client client;
+    // send and receive BinaryProtocol frames instead of JSON
+    private final boolean binary;
 
 
     public WebSocketCommunicator(String url, Client client) throws Exception {
+        this(url, client, true);
+    }
+
+    public WebSocketCommunicator(String url, Client client, boolean binary) throws Exception {
+        this.client = client;
+        this.binary = binary;
         URI uri = new URI("ws://" + url + "/ws");
         WebSocketContainer container = ContainerProvider.getWebSocketContainer();
         this.session = container.connectToServer(this, uri);
 
         this.session.addMessageHandler(new MessageHandler.Whole<String>() {
             public void onMessage(String message) {
-                // turn the string into a ServerMessage and handle it from there
-                ServerMessage serverMessage = gson.fromJson(message, ServerMessage.class);
-                switch (serverMessage.getServerMessageType()) {
-                    case ServerMessage.ServerMessageType.NOTIFICATION -> {
-                        Notification notification = gson.fromJson(message, Notification.class);
-                        client.displayNotification(notification);
-                    }
-                    case ServerMessage.ServerMessageType.LOAD_GAME -> {
-                        LoadGame loadGame = gson.fromJson(message, LoadGame.class);
-                        client.displayLoadGame(loadGame);
-                    }
-                    case ServerMessage.ServerMessageType.ERROR -> {
-                        ServerMessageError error = gson.fromJson(message, ServerMessageError.class);
-                        client.displayError(error);
-                    }
+                // turn the string into a ServerMessage and handle it from there, it's already the right subclass
+                display(gson.fromJson(message, ServerMessage.class));
+            }
+        });
+        this.session.addMessageHandler(new MessageHandler.Whole<ByteBuffer>() {
+            public void onMessage(ByteBuffer message) {
+                for (ServerMessage serverMessage : BinaryProtocol.decodeMessages(message)) {
+                    display(serverMessage);
                 }
             }
         });
     }
 
+    private void display(ServerMessage serverMessage) {
+        switch (serverMessage) {
+            case Notification notification -> client.displayNotification(notification);
+            case LoadGame loadGame -> client.displayLoadGame(loadGame);
+            case MoveMade moveMade -> client.displayMoveMade(moveMade);
+            case ServerMessageError error -> client.displayError(error);
+            default -> System.out.println("Unknown server message " + serverMessage.getServerMessageType());
+        }
+    }
+
     public void send(String msg) throws Exception {this.session.getBasicRemote().sendText(msg);}
 
+    public void send(UserGameCommand command) throws Exception {
+        if (binary) {
+            this.session.getBasicRemote().sendBinary(ByteBuffer.wrap(BinaryProtocol.encodeCommand(command)));
+        } else {
+            send(gson.toJson(command));
+        }
+    }
+
     public void onOpen(Session session, EndpointConfig endpointConfig) {
         System.out.println("Connected!");
     }
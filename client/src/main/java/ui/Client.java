@@ -4,8 +4,8 @@ import chess.ChessGame;
 import chess.ChessMove;
 import chess.ChessPiece;
 import chess.ChessPosition;
+import chess.InvalidMoveException;
 import client.ServerMessageObserver;
-import com.google.gson.Gson;
 import model.JoinResult;
 import client.ServerFacade;
 import model.*;
@@ -13,6 +13,7 @@ import websocket.commands.ConnectCommand;
 import websocket.commands.MakeMoveCommand;
 import websocket.commands.UserGameCommand;
 import websocket.messages.LoadGame;
+import websocket.messages.MoveMade;
 import websocket.messages.Notification;
 import websocket.messages.ServerMessageError;
 import static ui.EscapeSequences.SET_TEXT_COLOR_RED;
@@ -27,8 +28,8 @@ public class Client implements ServerMessageObserver {
     private final ServerFacade serverFacade;
     private String authToken;
     private final Scanner scanner = new Scanner(System.in);
-    private final Gson gson = new Gson();
     private ChessGame currentGame;
+    private int currentGameID;
     private String teamColor;
 
     public Client(int port) {
@@ -46,12 +47,40 @@ public class Client implements ServerMessageObserver {
 
     public void displayLoadGame(LoadGame loadGame) {
         currentGame = loadGame.getGame();
+        drawCurrentGame();
+    }
+
+    public void displayMoveMade(MoveMade moveMade) {
+        // a move only applies to the board right before it, if one was missed get the whole board again
+        if (currentGame == null || moveMade.getMoveCount() != currentGame.getMoveCount() + 1) {
+            requestResync();
+            return;
+        }
+        try {
+            currentGame.makeMove(moveMade.getMove());
+        } catch (InvalidMoveException e) {
+            requestResync();
+            return;
+        }
+        drawCurrentGame();
+    }
+
+    private void drawCurrentGame() {
         System.out.println();
-        ui.ChessBoard.drawChessBoard(teamColor, loadGame.getGame().getBoard(), ChessBoard.EMPTY_BOOLEAN_BOARD);
+        ui.ChessBoard.drawChessBoard(teamColor, currentGame.getBoard(), ChessBoard.EMPTY_BOOLEAN_BOARD);
         System.out.println();
         printMenu(true);
     }
 
+    private void requestResync() {
+        UserGameCommand resync = new UserGameCommand(UserGameCommand.CommandType.RESYNC, authToken, currentGameID);
+        try {
+            serverFacade.getWebSocketCommunicator().send(resync);
+        } catch (Exception e) {
+            System.out.println("Error: " + e.getMessage());
+        }
+    }
+
     public void displayError(ServerMessageError error) {
         System.out.print(SET_TEXT_COLOR_RED);
         System.out.println(error.getMessage() + "\n");
@@ -142,7 +171,7 @@ public class Client implements ServerMessageObserver {
             else {
                 MakeMoveCommand command = new MakeMoveCommand(authToken, gameID, move, teamColor);
                 try {
-                    serverFacade.getWebSocketCommunicator().send(gson.toJson(command));
+                    serverFacade.getWebSocketCommunicator().send(command);
                 } catch (Exception e) {
                     System.out.println("Error: " + e.getMessage());
                 }
@@ -157,7 +186,7 @@ public class Client implements ServerMessageObserver {
             System.out.println("This should resign the game");
             UserGameCommand command = new UserGameCommand(UserGameCommand.CommandType.RESIGN, authToken, gameID);
             try {
-                serverFacade.getWebSocketCommunicator().send(gson.toJson(command));
+                serverFacade.getWebSocketCommunicator().send(command);
             } catch (Exception e) {
                 System.out.println("Error: " + e.getMessage());
             }
@@ -167,7 +196,7 @@ public class Client implements ServerMessageObserver {
     public void leave(int gameID) {
         UserGameCommand command = new UserGameCommand(UserGameCommand.CommandType.LEAVE, authToken, gameID);
         try {
-            serverFacade.getWebSocketCommunicator().send(gson.toJson(command));
+            serverFacade.getWebSocketCommunicator().send(command);
         } catch (Exception e) {
             System.out.println("Error: " + e.getMessage());
         }
@@ -336,10 +365,13 @@ public class Client implements ServerMessageObserver {
     }
 
     private void connectWSToServer(int gameID, String teamColor) {
-        ConnectCommand connectRequest = new ConnectCommand(UserGameCommand.CommandType.CONNECT, authToken, gameID, teamColor.toLowerCase());
+        currentGameID = gameID;
+        // ask for just the moves after the first board, displayMoveMade makes them on our copy
+        ConnectCommand connectRequest = new ConnectCommand(UserGameCommand.CommandType.CONNECT, authToken, gameID,
+                teamColor.toLowerCase(), true);
         try {
             // eventually change this so the ServerFacade has a method for this instead of bypassing the SF completely
-            serverFacade.getWebSocketCommunicator().send(gson.toJson(connectRequest));
+            serverFacade.getWebSocketCommunicator().send(connectRequest);
         } catch (Exception e) {
             System.out.println("Error: " + e.getMessage());
         }
@@ -0,0 +1,10 @@
+package dataaccess;
+
+/**
+ * Indicates the seat someone tried to claim already belongs to another player (a 403 rather than a 400)
+ */
+public class AlreadyTakenException extends DataAccessException {
+    public AlreadyTakenException(String message) {
+        super(message);
+    }
+}
@@ -3,13 +3,46 @@ package dataaccess;
 import model.AuthData;
 import server.ResponseException;
 
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
 public interface AuthDAO {
 
+    /** Sessions that go unused for this long expire, unless the DAO was given a different timeout. */
+    Duration DEFAULT_IDLE_TIMEOUT = Duration.ofHours(24);
+
     void createAuth(AuthData auth) throws ResponseException;
 
+    /**
+     * Also counts as using the session, so it pushes back its expiry.
+     */
     AuthData getAuth(String authToken) throws DataAccessException, ResponseException;
 
     void deleteAuth(String authToken) throws ResponseException;  // use a username instead?
 
+    /**
+     * Deletes at most batchSize expired sessions, so a big backlog doesn't hold locks for long.
+     * @return how many were deleted
+     */
+    int deleteExpired(int batchSize) throws ResponseException;
+
     void clear() throws ResponseException;
+
+    // the same calls without blocking the caller, see DaoExecutor
+
+    default CompletableFuture<Void> createAuthAsync(AuthData auth) {return DaoExecutor.run(() -> createAuth(auth));}
+
+    default CompletableFuture<AuthData> getAuthAsync(String authToken) {
+        return DaoExecutor.supply(() -> getAuth(authToken));
+    }
+
+    default CompletableFuture<Void> deleteAuthAsync(String authToken) {
+        return DaoExecutor.run(() -> deleteAuth(authToken));
+    }
+
+    default CompletableFuture<Integer> deleteExpiredAsync(int batchSize) {
+        return DaoExecutor.supply(() -> deleteExpired(batchSize));
+    }
+
+    default CompletableFuture<Void> clearAsync() {return DaoExecutor.run(this::clear);}
 }
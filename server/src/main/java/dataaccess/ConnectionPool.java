@@ -0,0 +1,181 @@
+package dataaccess;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A small fixed-size pool of database connections.
+ * <p>
+ * Callers get a wrapper around a pooled connection, and closing the wrapper hands the connection back instead of
+ * closing it. Keeping connections open also keeps the driver's prepared statement cache, so each statement is only
+ * parsed by the server once per connection.
+ */
+class ConnectionPool implements ConnectionSource {
+
+    private record IdleConnection(Connection physical, long idleSince) {}
+
+    private static final long ACQUIRE_TIMEOUT_MILLIS = 10_000;
+    // connections idle longer than this get checked before being handed out, the server may have dropped them
+    private static final long VALIDATE_AFTER_MILLIS = 30_000;
+    private static final int VALIDATE_TIMEOUT_SECONDS = 2;
+
+    private final String connectionUrl;
+    private final String username;
+    private final String password;
+    private final String catalog;
+    private final Semaphore permits;
+    private final LinkedBlockingDeque<IdleConnection> idle = new LinkedBlockingDeque<>();
+    private volatile boolean closed = false;
+
+    ConnectionPool(String connectionUrl, String username, String password, String catalog, int maxSize) {
+        this.connectionUrl = connectionUrl;
+        this.username = username;
+        this.password = password;
+        this.catalog = catalog;
+        this.permits = new Semaphore(maxSize, true);
+    }
+
+    public Connection getConnection() throws DataAccessException {
+        try {
+            if (!permits.tryAcquire(ACQUIRE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                throw new DataAccessException("timed out waiting for a database connection");
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new DataAccessException("interrupted waiting for a database connection", ex);
+        }
+
+        try {
+            Connection physical = takeIdle();
+            if (physical == null) {
+                physical = DriverManager.getConnection(connectionUrl, username, password);
+                physical.setCatalog(catalog);
+            }
+            return wrap(physical);
+        } catch (SQLException ex) {
+            permits.release();
+            throw new DataAccessException("failed to get connection", ex);
+        }
+    }
+
+    /**
+     * Closes every idle connection. Connections that are checked out get closed when they're returned.
+     */
+    void close() {
+        closed = true;
+        IdleConnection connection;
+        while ((connection = idle.pollFirst()) != null) {
+            closeQuietly(connection.physical());
+        }
+    }
+
+    private Connection takeIdle() {
+        IdleConnection connection;
+        // most recently used first, it's the one least likely to have timed out
+        while ((connection = idle.pollFirst()) != null) {
+            Connection physical = connection.physical();
+            try {
+                if (System.currentTimeMillis() - connection.idleSince() < VALIDATE_AFTER_MILLIS
+                        || physical.isValid(VALIDATE_TIMEOUT_SECONDS)) {
+                    return physical;
+                }
+            } catch (SQLException ignored) {
+                // falls through and discards it
+            }
+            closeQuietly(physical);
+        }
+        return null;
+    }
+
+    private void release(Connection physical, boolean broken) {
+        try {
+            if (broken || closed || physical.isClosed()) {
+                closeQuietly(physical);
+                return;
+            }
+            // don't let one caller's unfinished transaction leak into the next
+            if (!physical.getAutoCommit()) {
+                physical.rollback();
+                physical.setAutoCommit(true);
+            }
+            physical.clearWarnings();
+            idle.offerFirst(new IdleConnection(physical, System.currentTimeMillis()));
+        } catch (SQLException ex) {
+            closeQuietly(physical);
+        } finally {
+            permits.release();
+        }
+    }
+
+    private Connection wrap(Connection physical) {
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, new PooledConnectionHandler(physical));
+    }
+
+    private static void closeQuietly(Connection physical) {
+        try {
+            physical.close();
+        } catch (SQLException ignored) {
+            // it's being thrown away either way
+        }
+    }
+
+    private class PooledConnectionHandler implements InvocationHandler {
+        private final Connection physical;
+        private boolean returned = false;
+        private boolean broken = false;
+
+        PooledConnectionHandler(Connection physical) {
+            this.physical = physical;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close" -> {
+                    if (!returned) {
+                        returned = true;
+                        release(physical, broken);
+                    }
+                    return null;
+                }
+                case "isClosed" -> {
+                    return returned || physical.isClosed();
+                }
+                case "equals" -> {
+                    return proxy == args[0];
+                }
+                case "hashCode" -> {
+                    return System.identityHashCode(proxy);
+                }
+                case "toString" -> {
+                    return "Pooled" + physical;
+                }
+                default -> {
+                    if (returned) {
+                        throw new SQLException("Connection has already been closed");
+                    }
+                }
+            }
+
+            try {
+                return method.invoke(physical, args);
+            } catch (InvocationTargetException ex) {
+                // SQL states in class 08 mean the connection itself failed, so it shouldn't go back in the pool
+                if (ex.getCause() instanceof SQLException sqlEx
+                        && sqlEx.getSQLState() != null && sqlEx.getSQLState().startsWith("08")) {
+                    broken = true;
+                }
+                throw ex.getCause();
+            }
+        }
+    }
+}
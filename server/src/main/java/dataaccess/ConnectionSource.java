@@ -0,0 +1,33 @@
+package dataaccess;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Where a SQL DAO gets its connections: the main database (and its replicas) through DatabaseManager, or a single
+ * pool, e.g. one game shard.
+ */
+interface ConnectionSource {
+
+    ConnectionSource MAIN = new ConnectionSource() {
+        public Connection getConnection() throws DataAccessException {return DatabaseManager.getConnection();}
+
+        public Connection getReadConnection() throws DataAccessException {return DatabaseManager.getReadConnection();}
+
+        public <T> T readWithFallback(DatabaseManager.SqlRead<T> read) throws SQLException, DataAccessException {
+            return DatabaseManager.readWithFallback(read);
+        }
+    };
+
+    Connection getConnection() throws DataAccessException;
+
+    // for reads that can be a moment behind, see DatabaseManager.getReadConnection
+    default Connection getReadConnection() throws DataAccessException {return getConnection();}
+
+    // see DatabaseManager.readWithFallback
+    default <T> T readWithFallback(DatabaseManager.SqlRead<T> read) throws SQLException, DataAccessException {
+        try (Connection conn = getReadConnection()) {
+            return read.read(conn);
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package dataaccess;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs blocking DAO calls on virtual threads for the *Async DAO methods, so the thread that asked isn't parked on
+ * JDBC. There's no limit here, the connection pool already limits how many queries run at once.
+ */
+public final class DaoExecutor {
+
+    private static final ExecutorService EXECUTOR =
+            Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("dao-", 0).factory());
+
+    private DaoExecutor() {}
+
+    /**
+     * @return a future completed with the call's result, or with the exception it threw (not wrapped)
+     */
+    public static <T> CompletableFuture<T> supply(Callable<T> call) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        EXECUTOR.execute(() -> {
+            try {
+                future.complete(call.call());
+            } catch (Throwable ex) {
+                future.completeExceptionally(ex);
+            }
+        });
+        return future;
+    }
+
+    public static CompletableFuture<Void> run(BlockingCall call) {
+        return supply(() -> {
+            call.run();
+            return null;
+        });
+    }
+
+    public interface BlockingCall {
+        void run() throws Exception;
+    }
+}
@@ -1,13 +1,36 @@
 package dataaccess;
 
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class DatabaseManager {
     private static String databaseName;
     private static String dbUsername;
     private static String dbPassword;
     private static String connectionUrl;
+    private static volatile ConnectionPool pool;
+    private static volatile List<ReplicaPool> replicas = List.of();
+    private static final AtomicInteger nextReplica = new AtomicInteger();
+    private static volatile List<Shard> shards = List.of();
+
+    /**
+     * A database holding some of the games, see ShardedGameDAO.
+     * @param name the db.shards entry, which is also where the shard sits on the hash ring
+     */
+    private record Shard(String name, String url, String databaseName, ConnectionPool pool) {}
+
+    private static final int DEFAULT_POOL_SIZE = 10;
+    // have the driver prepare statements on the server and keep them per connection, so repeated calls skip parsing
+    private static final String STATEMENT_CACHE_OPTIONS =
+            "cachePrepStmts=true&useServerPrepStmts=true&prepStmtCacheSize=250&prepStmtCacheSqlLimit=2048";
+    // a replica that's down should send reads to the primary quickly rather than hang them
+    private static final String REPLICA_OPTIONS = "&connectTimeout=2000";
+    private static final int DEFAULT_REPLICA_MAX_LAG_SECONDS = 2;
 
     /*
      * Load the database information for the db.properties file.
@@ -20,8 +43,15 @@ public class DatabaseManager {
      * Creates the database if it does not already exist.
      */
     static public void createDatabase() throws DataAccessException {
-        var statement = "CREATE DATABASE IF NOT EXISTS " + databaseName;
-        try (var conn = DriverManager.getConnection(connectionUrl, dbUsername, dbPassword);
+        createDatabase(connectionUrl, databaseName);
+        for (Shard shard : shards) {
+            createDatabase(shard.url(), shard.databaseName());
+        }
+    }
+
+    private static void createDatabase(String url, String name) throws DataAccessException {
+        var statement = "CREATE DATABASE IF NOT EXISTS " + name;
+        try (var conn = DriverManager.getConnection(url, dbUsername, dbPassword);
              var preparedStatement = conn.prepareStatement(statement)) {
             preparedStatement.executeUpdate();
         } catch (SQLException ex) {
@@ -30,9 +60,10 @@ public class DatabaseManager {
     }
 
     /**
-     * Create a connection to the database and sets the catalog based upon the
+     * Gets a pooled connection to the database with the catalog set based upon the
      * properties specified in db.properties. Connections to the database should
-     * be short-lived, and you must close the connection when you are done with it.
+     * be short-lived, and you must close the connection when you are done with it,
+     * which returns it to the pool.
      * The easiest way to do that is with a try-with-resource block.
      * <br/>
      * <code>
@@ -43,14 +74,49 @@ public class DatabaseManager {
      */
     // I changed this to public since it wouldn't let me use it otherwise
     public static Connection getConnection() throws DataAccessException {
-        try {
-            //do not wrap the following line with a try-with-resources
-            var conn = DriverManager.getConnection(connectionUrl, dbUsername, dbPassword);
-            conn.setCatalog(databaseName);
-            return conn;
-        } catch (SQLException ex) {
-            throw new DataAccessException("failed to get connection", ex);
+        return pool.getConnection();
+    }
+
+    /**
+     * Gets a connection for a read that can tolerate data a couple of seconds old, from one of the replicas
+     * listed in db.replicas if any of them is caught up, otherwise from the primary. Anything that writes, or
+     * that has to see a write made just before it, should use getConnection instead. See readWithFallback for
+     * reads that only need to see rows that have already been created.
+     */
+    public static Connection getReadConnection() throws DataAccessException {
+        List<ReplicaPool> current = replicas;
+        if (!current.isEmpty()) {
+            int start = Math.floorMod(nextReplica.getAndIncrement(), current.size());
+            for (int i = 0; i < current.size(); i++) {
+                Connection conn = current.get((start + i) % current.size()).getConnection();
+                if (conn != null) {return conn;}
+            }
         }
+        return getConnection();
+    }
+
+    /**
+     * Runs a lookup on a read connection, and again on the primary if it finds nothing, since a row created a
+     * moment ago (a new game, say) may not have reached the replica yet. A replica can still return a row that's
+     * been deleted, so anything that has to see deletes, like auth tokens, should use getConnection instead.
+     * @return what the lookup returned, null if neither found anything
+     */
+    public static <T> T readWithFallback(SqlRead<T> read) throws SQLException, DataAccessException {
+        boolean replicasConfigured;
+        try (Connection conn = getReadConnection()) {
+            T result = read.read(conn);
+            if (result != null) {return result;}
+            replicasConfigured = !replicas.isEmpty();
+        }
+        if (!replicasConfigured) {return null;}
+        try (Connection conn = getConnection()) {
+            return read.read(conn);
+        }
+    }
+
+    public interface SqlRead<T> {
+        // null means not found
+        T read(Connection conn) throws SQLException, DataAccessException;
     }
 
     private static void loadPropertiesFromResources() {
@@ -73,6 +139,80 @@ public class DatabaseManager {
 
         var host = props.getProperty("db.host");
         var port = Integer.parseInt(props.getProperty("db.port"));
-        connectionUrl = String.format("jdbc:mysql://%s:%d", host, port);
+        connectionUrl = String.format("jdbc:mysql://%s:%d?%s", host, port, STATEMENT_CACHE_OPTIONS);
+
+        var poolSize = props.getProperty("db.poolSize");
+        int size = poolSize == null ? DEFAULT_POOL_SIZE : Integer.parseInt(poolSize);
+        // the old pool's connections point at the old database, so start over
+        if (pool != null) {
+            pool.close();
+        }
+        pool = new ConnectionPool(connectionUrl, dbUsername, dbPassword, databaseName, size);
+
+        var maxLag = props.getProperty("db.replicaMaxLagSeconds");
+        useReplicas(props.getProperty("db.replicas"), size,
+                maxLag == null ? DEFAULT_REPLICA_MAX_LAG_SECONDS : Integer.parseInt(maxLag));
+        useShards(props.getProperty("db.shards"), size);
+    }
+
+    /**
+     * @return each game shard's connections by name, in db.shards order, or nothing if games are kept in the
+     * main database
+     */
+    static Map<String, ConnectionSource> getShards() {
+        Map<String, ConnectionSource> sources = new LinkedHashMap<>();
+        for (Shard shard : shards) {
+            sources.put(shard.name(), shard.pool());
+        }
+        return sources;
+    }
+
+    public static boolean isSharded() {
+        return !shards.isEmpty();
+    }
+
+    /**
+     * @param entries comma separated host:port pairs, each optionally followed by /database when it isn't the
+     *                same name as the main database. Same user and password as the main database.
+     */
+    static void useShards(String entries, int poolSize) {
+        List<Shard> newShards = new ArrayList<>();
+        if (entries != null) {
+            for (String entry : entries.split(",")) {
+                if (entry.isBlank()) {continue;}
+                String name = entry.trim();
+                int slash = name.indexOf('/');
+                String endpoint = (slash < 0) ? name : name.substring(0, slash);
+                String shardDatabase = (slash < 0) ? databaseName : name.substring(slash + 1);
+                String url = String.format("jdbc:mysql://%s?%s", endpoint, STATEMENT_CACHE_OPTIONS);
+                newShards.add(new Shard(name, url, shardDatabase,
+                        new ConnectionPool(url, dbUsername, dbPassword, shardDatabase, poolSize)));
+            }
+        }
+        List<Shard> oldShards = shards;
+        shards = List.copyOf(newShards);
+        for (Shard shard : oldShards) {
+            shard.pool().close();
+        }
+    }
+
+    /**
+     * @param endpoints comma separated host:port pairs, with the same database, user, and password as the primary
+     */
+    static void useReplicas(String endpoints, int poolSize, long maxLagSeconds) {
+        List<ReplicaPool> newReplicas = new ArrayList<>();
+        if (endpoints != null) {
+            for (String endpoint : endpoints.split(",")) {
+                if (endpoint.isBlank()) {continue;}
+                String url = String.format("jdbc:mysql://%s?%s%s", endpoint.trim(), STATEMENT_CACHE_OPTIONS, REPLICA_OPTIONS);
+                newReplicas.add(new ReplicaPool(endpoint.trim(),
+                        new ConnectionPool(url, dbUsername, dbPassword, databaseName, poolSize), maxLagSeconds));
+            }
+        }
+        List<ReplicaPool> oldReplicas = replicas;
+        replicas = List.copyOf(newReplicas);
+        for (ReplicaPool replica : oldReplicas) {
+            replica.close();
+        }
     }
 }
@@ -1,22 +1,73 @@
 package dataaccess;
 
+import chess.ChessGame;
 import model.GameData;
+import model.GameListQuery;
 import model.JoinData;
+import model.JsonFriendlyGameData;
 import server.ResponseException;
 
 import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
 
 public interface GameDAO {
 
-    int createGame(GameData gameData) throws ResponseException;
+    int createGame(GameData gameData) throws ResponseException, DataAccessException;
 
     GameData getGame(int gameID) throws DataAccessException, ResponseException;
 
+    /**
+     * Like getGame, but may come from a read replica a moment behind, for showing a game to someone who can't
+     * change it.
+     */
+    default GameData viewGame(int gameID) throws DataAccessException, ResponseException {return getGame(gameID);}
+
     Collection<GameData> listGames() throws ResponseException;
 
+    // only the id, name, and players of each game, in gameID order
+    Collection<JsonFriendlyGameData> listGameSummaries(GameListQuery query) throws ResponseException;
+
     void updateWhiteUsername(JoinData joinData, String username) throws DataAccessException, ResponseException;
 
     void updateBlackUsername(JoinData joinData, String username) throws DataAccessException, ResponseException;
 
+    // saves the game's state after a move or once it's over
+    void updateGame(int gameID, ChessGame game) throws ResponseException;
+
+    // empties whichever seat the user is in, if any
+    void removeUser(int gameID, String username) throws ResponseException;
+
     void clear() throws ResponseException;
+
+    // the same calls without blocking the caller, see DaoExecutor
+
+    default CompletableFuture<Integer> createGameAsync(GameData gameData) {
+        return DaoExecutor.supply(() -> createGame(gameData));
+    }
+
+    default CompletableFuture<GameData> getGameAsync(int gameID) {return DaoExecutor.supply(() -> getGame(gameID));}
+
+    default CompletableFuture<Collection<GameData>> listGamesAsync() {return DaoExecutor.supply(this::listGames);}
+
+    default CompletableFuture<Collection<JsonFriendlyGameData>> listGameSummariesAsync(GameListQuery query) {
+        return DaoExecutor.supply(() -> listGameSummaries(query));
+    }
+
+    default CompletableFuture<Void> updateWhiteUsernameAsync(JoinData joinData, String username) {
+        return DaoExecutor.run(() -> updateWhiteUsername(joinData, username));
+    }
+
+    default CompletableFuture<Void> updateBlackUsernameAsync(JoinData joinData, String username) {
+        return DaoExecutor.run(() -> updateBlackUsername(joinData, username));
+    }
+
+    default CompletableFuture<Void> updateGameAsync(int gameID, ChessGame game) {
+        return DaoExecutor.run(() -> updateGame(gameID, game));
+    }
+
+    default CompletableFuture<Void> removeUserAsync(int gameID, String username) {
+        return DaoExecutor.run(() -> removeUser(gameID, username));
+    }
+
+    default CompletableFuture<Void> clearAsync() {return DaoExecutor.run(this::clear);}
 }
@@ -0,0 +1,67 @@
+package dataaccess;
+
+import model.AuthData;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Idle expiry for the auth DAOs that keep sessions in a map, MemoryAuthDAO and MappedAuthDAO. A session expires once
+ * it's gone unused for longer than the idle timeout.
+ */
+final class IdleSessions {
+
+    private final ConcurrentHashMap<String, MemoryStore.Session> sessions;
+    private final long idleTimeoutMillis;
+    // how the owning store runs a change, and records a session being removed
+    private final Consumer<Runnable> change;
+    private final Consumer<String> logDeleted;
+
+    IdleSessions(ConcurrentHashMap<String, MemoryStore.Session> sessions, Duration idleTimeout,
+                 Consumer<Runnable> change, Consumer<String> logDeleted) {
+        this.sessions = sessions;
+        this.idleTimeoutMillis = idleTimeout.toMillis();
+        this.change = change;
+        this.logDeleted = logDeleted;
+    }
+
+    /**
+     * Looks up a session and counts it as used, like AuthDAO.getAuth.
+     */
+    AuthData use(String authToken) throws DataAccessException {
+        long now = System.currentTimeMillis();
+        MemoryStore.Session session = (authToken == null) ? null : sessions.get(authToken);
+        if (session == null || isExpired(session, now)) {
+            throw new DataAccessException("Error: unauthorized");
+        }
+        // last use isn't saved, a reloaded session counts as used when it was loaded
+        session.lastUsed = now;
+        return session.auth;
+    }
+
+    int deleteExpired(int batchSize) {
+        long now = System.currentTimeMillis();
+        int deleted = 0;
+        Iterator<MemoryStore.Session> iterator = sessions.values().iterator();
+        while (iterator.hasNext() && deleted < batchSize) {
+            MemoryStore.Session session = iterator.next();
+            if (!isExpired(session, now)) {continue;}
+            boolean[] removed = new boolean[1];
+            // checks again under the map's lock in case the session was used in the meantime
+            change.accept(() -> sessions.computeIfPresent(session.auth.authToken(), (token, current) -> {
+                if (current != session || !isExpired(current, now)) {return current;}
+                logDeleted.accept(token);
+                removed[0] = true;
+                return null;
+            }));
+            if (removed[0]) {deleted++;}
+        }
+        return deleted;
+    }
+
+    private boolean isExpired(MemoryStore.Session session, long now) {
+        return now - session.lastUsed > idleTimeoutMillis;
+    }
+}
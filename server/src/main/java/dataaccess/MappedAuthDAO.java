@@ -0,0 +1,51 @@
+package dataaccess;
+
+import model.AuthData;
+import server.ResponseException;
+
+import java.time.Duration;
+
+public class MappedAuthDAO implements AuthDAO {
+
+    private final MappedStore store;
+    private final IdleSessions idleSessions;
+
+    public MappedAuthDAO(MappedStore store, Duration idleTimeout) {
+        this.store = store;
+        this.idleSessions = new IdleSessions(store.sessions, idleTimeout, store::change, store::logAuthDeleted);
+    }
+
+    public void createAuth(AuthData auth) {
+        store.change(() -> store.sessions.compute(auth.authToken(), (token, old) -> {
+            store.logAuth(auth);
+            return new MemoryStore.Session(auth, System.currentTimeMillis());
+        }));
+    }
+
+    public AuthData getAuth(String authToken) throws DataAccessException {
+        return idleSessions.use(authToken);
+    }
+
+    public void deleteAuth(String authToken) throws ResponseException {
+        boolean[] removed = new boolean[1];
+        if (authToken != null) {
+            store.change(() -> store.sessions.computeIfPresent(authToken, (token, session) -> {
+                store.logAuthDeleted(token);
+                removed[0] = true;
+                return null;
+            }));
+        }
+        if (!removed[0]) {throw new ResponseException("Error: bad request");}
+    }
+
+    public int deleteExpired(int batchSize) {
+        return idleSessions.deleteExpired(batchSize);
+    }
+
+    public void clear() {
+        store.change(() -> {
+            store.sessions.clear();
+            store.logAuthsCleared();
+        });
+    }
+}
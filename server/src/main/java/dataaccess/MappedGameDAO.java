@@ -0,0 +1,88 @@
+package dataaccess;
+
+import chess.ChessGame;
+import model.GameData;
+import model.GameListQuery;
+import model.JoinData;
+import model.JsonFriendlyGameData;
+import server.ResponseException;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Objects;
+
+public class MappedGameDAO implements GameDAO {
+
+    private final MappedStore store;
+
+    public MappedGameDAO(MappedStore store) {this.store = store;}
+
+    public int createGame(GameData incompleteGameData) throws ResponseException, DataAccessException {
+        MappedStore.checkLength(incompleteGameData.gameName());
+        return store.createGame(incompleteGameData.gameName());
+    }
+
+    public GameData getGame(int gameID) throws DataAccessException {
+        GameData game = store.readGame(gameID);
+        if (game == null) {throw new DataAccessException("Error: bad request");}
+        return game;
+    }
+
+    public Collection<GameData> listGames() {
+        ArrayList<GameData> games = new ArrayList<>();
+        for (MappedStore.GameSummary summary : store.listGames(0, 0, summary -> true)) {
+            GameData game = store.readGame(summary.gameID());
+            if (game != null) {games.add(game);}
+        }
+        return games;
+    }
+
+    public Collection<JsonFriendlyGameData> listGameSummaries(GameListQuery query) {
+        ArrayList<JsonFriendlyGameData> summaries = new ArrayList<>();
+        for (MappedStore.GameSummary game : store.listGames(query.afterGameID(), query.limit(), game ->
+                (query.player() == null || query.player().equals(game.whiteUsername())
+                        || query.player().equals(game.blackUsername()))
+                && (!query.openSeatsOnly() || game.whiteUsername() == null || game.blackUsername() == null)
+                && (query.finished() == null || query.finished() == game.finished()))) {
+            summaries.add(new JsonFriendlyGameData(game.gameID(), game.whiteUsername(), game.blackUsername(), game.gameName()));
+        }
+        return summaries;
+    }
+
+    public void updateWhiteUsername(JoinData joinData, String username) throws DataAccessException {
+        MappedStore.checkLength(username);
+        GameData before = store.updateGame(joinData.gameID(), game -> (game.whiteUsername() != null) ? game :
+                new GameData(game.gameID(), username, game.blackUsername(), game.gameName(), game.game()));
+        if (before == null) {throw new DataAccessException("Error: bad request");}
+        if (before.whiteUsername() != null) {throw new AlreadyTakenException("Error: already taken");}
+    }
+
+    public void updateBlackUsername(JoinData joinData, String username) throws DataAccessException {
+        MappedStore.checkLength(username);
+        GameData before = store.updateGame(joinData.gameID(), game -> (game.blackUsername() != null) ? game :
+                new GameData(game.gameID(), game.whiteUsername(), username, game.gameName(), game.game()));
+        if (before == null) {throw new DataAccessException("Error: bad request");}
+        if (before.blackUsername() != null) {throw new AlreadyTakenException("Error: already taken");}
+    }
+
+    public void updateGame(int gameID, ChessGame chessGame) {
+        store.updateGame(gameID, game ->
+                new GameData(game.gameID(), game.whiteUsername(), game.blackUsername(), game.gameName(), chessGame));
+    }
+
+    public void removeUser(int gameID, String username) {
+        store.updateGame(gameID, game -> {
+            if (!Objects.equals(username, game.whiteUsername()) && !Objects.equals(username, game.blackUsername())) {
+                return game;
+            }
+            return new GameData(game.gameID(),
+                    Objects.equals(username, game.whiteUsername()) ? null : game.whiteUsername(),
+                    Objects.equals(username, game.blackUsername()) ? null : game.blackUsername(),
+                    game.gameName(), game.game());
+        });
+    }
+
+    public void clear() {
+        store.clearGames();
+    }
+}
@@ -0,0 +1,491 @@
+package dataaccess;
+
+import chess.ChessGame;
+import chess.ChessGameCodec;
+import model.AuthData;
+import model.GameData;
+import model.UserData;
+import server.ResponseException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+
+/**
+ * The data behind the Mapped*DAOs, kept in two files in one directory so the server can run without a database.
+ * <p>
+ * games.dat is memory-mapped: a 64 byte header, then one 256 byte slot per game at (gameID - 1), so finding a game
+ * is just arithmetic. Slot layout:
+ * <ul>
+ *     <li>0: 1 if the slot holds a game</li>
+ *     <li>1: 1 if the game is finished</li>
+ *     <li>2, 67, 132: white username, black username, game name, each a length byte and up to 64 bytes of UTF-8</li>
+ *     <li>197: length of the game, then the game in the ChessGameCodec format</li>
+ * </ul>
+ * records.log is an append-only log of user and auth changes that's replayed into maps on startup. It's rewritten
+ * without the dead records once more than COMPACT_AFTER_DEAD_RECORDS of them are dead, which is checked on open and
+ * after every change. Both files survive the process crashing, they're only forced to disk on close.
+ */
+public class MappedStore implements AutoCloseable {
+
+    private static final int MAGIC = 0x43485347; // "CHSG"
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int NEXT_GAME_ID_OFFSET = 12;
+
+    static final int SLOT_SIZE = 256;
+    private static final int USED = 0;
+    private static final int FINISHED = 1;
+    private static final int WHITE = 2;
+    private static final int BLACK = 67;
+    private static final int NAME = 132;
+    private static final int GAME = 197;
+    static final int MAX_STRING_BYTES = 64;
+    private static final int MAX_GAME_BYTES = SLOT_SIZE - GAME - 1;
+    // a MappedByteBuffer only reaches Integer.MAX_VALUE bytes, so slots past this one can't be mapped
+    static final int MAX_GAME_ID = (Integer.MAX_VALUE - HEADER_SIZE) / SLOT_SIZE;
+
+    private static final int INITIAL_SLOTS = 1024;
+    private static final int LOCK_STRIPES = 64;
+
+    private static final byte USER = 1;
+    private static final byte AUTH = 2;
+    private static final byte DELETE_AUTH = 3;
+    private static final byte CLEAR_USERS = 4;
+    private static final byte CLEAR_AUTHS = 5;
+    private static final int COMPACT_AFTER_DEAD_RECORDS = 1024;
+
+    /** The players and name of a game without decoding the game itself. */
+    record GameSummary(int gameID, String whiteUsername, String blackUsername, String gameName, boolean finished) {}
+
+    final ConcurrentHashMap<String, UserData> users = new ConcurrentHashMap<>();
+    final ConcurrentHashMap<String, MemoryStore.Session> sessions = new ConcurrentHashMap<>();
+
+    private final Path directory;
+    private final FileChannel gameChannel;
+    private volatile MappedByteBuffer games;
+    private final AtomicInteger nextGameID = new AtomicInteger(1);
+    // slot reads and writes hold the read lock and their slot's stripe, growing or clearing the file holds the write lock
+    private final ReentrantReadWriteLock mapLock = new ReentrantReadWriteLock();
+    // creating a game holds the read lock from taking its id until its slot is written, clearing holds the write
+    // lock, so a clear can't land between the two and leave a game behind that nextGameID hands out again
+    private final ReentrantReadWriteLock idLock = new ReentrantReadWriteLock();
+    private final ReentrantLock[] slotLocks = new ReentrantLock[LOCK_STRIPES];
+
+    private FileChannel log;
+    private final ReentrantLock logLock = new ReentrantLock();
+    private volatile int logRecords = 0;
+    // changes hold the read lock while they update a map and log it, compacting takes the write lock so the maps
+    // hold every change that's in the log
+    private final ReentrantReadWriteLock recordsLock = new ReentrantReadWriteLock();
+
+    private MappedStore(Path directory) throws IOException {
+        this.directory = directory;
+        for (int i = 0; i < LOCK_STRIPES; i++) {slotLocks[i] = new ReentrantLock();}
+        this.gameChannel = FileChannel.open(directory.resolve("games.dat"),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    public static MappedStore open(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        MappedStore store = new MappedStore(directory);
+        store.loadGames();
+        store.loadRecords();
+        return store;
+    }
+
+    // ---- games ----
+
+    int createGame(String gameName) throws ResponseException {
+        idLock.readLock().lock();
+        try {
+            int gameID = nextGameID.getAndUpdate(id -> (id > MAX_GAME_ID) ? id : id + 1);
+            if (gameID > MAX_GAME_ID) {throw new ResponseException("Error: the games file is full");}
+            ensureCapacity(gameID);
+            mapLock.readLock().lock();
+            try {
+                games.putInt(NEXT_GAME_ID_OFFSET, Math.max(games.getInt(NEXT_GAME_ID_OFFSET), gameID + 1));
+                ReentrantLock slotLock = slotLock(gameID);
+                slotLock.lock();
+                try {
+                    writeSlot(gameID, new GameData(gameID, null, null, gameName, new ChessGame()));
+                } finally {
+                    slotLock.unlock();
+                }
+            } finally {
+                mapLock.readLock().unlock();
+            }
+            return gameID;
+        } finally {
+            idLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the game, or null if there isn't one with that id
+     */
+    GameData readGame(int gameID) {
+        mapLock.readLock().lock();
+        ReentrantLock slotLock = slotLock(gameID);
+        slotLock.lock();
+        try {
+            return hasGame(gameID) ? readSlot(gameID) : null;
+        } finally {
+            slotLock.unlock();
+            mapLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Replaces a game with update(game), all while holding its slot, and writes it back if it changed.
+     * @return the game before the update, or null if there isn't one with that id
+     */
+    GameData updateGame(int gameID, UnaryOperator<GameData> update) {
+        mapLock.readLock().lock();
+        ReentrantLock slotLock = slotLock(gameID);
+        slotLock.lock();
+        try {
+            if (!hasGame(gameID)) {return null;}
+            GameData before = readSlot(gameID);
+            GameData after = update.apply(before);
+            if (after != before) {writeSlot(gameID, after);}
+            return before;
+        } finally {
+            slotLock.unlock();
+            mapLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return summaries of games with ids after afterGameID, in id order, stopping after limit of them pass the filter
+     */
+    List<GameSummary> listGames(int afterGameID, int limit, Predicate<GameSummary> filter) {
+        List<GameSummary> summaries = new ArrayList<>();
+        int lastGameID = nextGameID.get() - 1;
+        for (int gameID = Math.max(1, afterGameID + 1); gameID <= lastGameID; gameID++) {
+            if (limit > 0 && summaries.size() == limit) {break;}
+            mapLock.readLock().lock();
+            ReentrantLock slotLock = slotLock(gameID);
+            slotLock.lock();
+            try {
+                if (!hasGame(gameID)) {continue;}
+                int slot = slotOffset(gameID);
+                GameSummary summary = new GameSummary(gameID, readString(slot + WHITE), readString(slot + BLACK),
+                        readString(slot + NAME), games.get(slot + FINISHED) == 1);
+                if (filter.test(summary)) {summaries.add(summary);}
+            } finally {
+                slotLock.unlock();
+                mapLock.readLock().unlock();
+            }
+        }
+        return summaries;
+    }
+
+    void clearGames() {
+        idLock.writeLock().lock();
+        mapLock.writeLock().lock();
+        try {
+            int lastGameID = nextGameID.get() - 1;
+            byte[] empty = new byte[SLOT_SIZE];
+            int slots = (games.capacity() - HEADER_SIZE) / SLOT_SIZE;
+            for (int gameID = 1; gameID <= Math.min(lastGameID, slots); gameID++) {
+                games.put(slotOffset(gameID), empty);
+            }
+            nextGameID.set(1);
+            games.putInt(NEXT_GAME_ID_OFFSET, 1);
+        } finally {
+            mapLock.writeLock().unlock();
+            idLock.writeLock().unlock();
+        }
+    }
+
+    private void loadGames() throws IOException {
+        boolean isNew = gameChannel.size() == 0;
+        games = gameChannel.map(FileChannel.MapMode.READ_WRITE, 0,
+                Math.max(gameChannel.size(), HEADER_SIZE + (long) INITIAL_SLOTS * SLOT_SIZE));
+        if (isNew) {
+            games.putInt(0, MAGIC);
+            games.putInt(4, FORMAT_VERSION);
+            games.putInt(8, SLOT_SIZE);
+            games.putInt(NEXT_GAME_ID_OFFSET, 1);
+            return;
+        }
+        if (games.getInt(0) != MAGIC || games.getInt(4) != FORMAT_VERSION || games.getInt(8) != SLOT_SIZE) {
+            throw new IOException(directory.resolve("games.dat") + " isn't a games file this server can read");
+        }
+        // the header can lag behind if the process died mid-create, so trust the slots over it
+        int nextID = games.getInt(NEXT_GAME_ID_OFFSET);
+        int slots = (games.capacity() - HEADER_SIZE) / SLOT_SIZE;
+        for (int gameID = slots; gameID >= nextID; gameID--) {
+            if (hasGame(gameID)) {
+                nextID = gameID + 1;
+                break;
+            }
+        }
+        nextGameID.set(nextID);
+    }
+
+    private void ensureCapacity(int gameID) throws ResponseException {
+        long needed = slotOffset(gameID) + (long) SLOT_SIZE;
+        if (needed <= games.capacity()) {return;}
+        mapLock.writeLock().lock();
+        try {
+            if (needed <= games.capacity()) {return;}
+            long size = games.capacity();
+            while (size < needed) {size = HEADER_SIZE + (size - HEADER_SIZE) * 2;}
+            // doubling can overshoot what's mappable even when the slot itself fits
+            size = Math.min(size, slotOffset(MAX_GAME_ID) + (long) SLOT_SIZE);
+            games.force();
+            games = gameChannel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } catch (IOException ex) {
+            throw new ResponseException("Error: Unable to grow the games file", ex);
+        } finally {
+            mapLock.writeLock().unlock();
+        }
+    }
+
+    private ReentrantLock slotLock(int gameID) {
+        return slotLocks[Math.floorMod(gameID, LOCK_STRIPES)];
+    }
+
+    private static int slotOffset(int gameID) {
+        // in long, so an id past the end can't wrap around to some other slot
+        long offset = HEADER_SIZE + (gameID - 1L) * SLOT_SIZE;
+        if (gameID < 1 || offset + SLOT_SIZE > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Game " + gameID + " is outside what the games file can map");
+        }
+        return (int) offset;
+    }
+
+    private boolean hasGame(int gameID) {
+        return gameID > 0 && gameID <= (games.capacity() - HEADER_SIZE) / SLOT_SIZE
+                && games.get(slotOffset(gameID) + USED) == 1;
+    }
+
+    private GameData readSlot(int gameID) {
+        int slot = slotOffset(gameID);
+        byte[] game = new byte[Byte.toUnsignedInt(games.get(slot + GAME))];
+        games.get(slot + GAME + 1, game);
+        return new GameData(gameID, readString(slot + WHITE), readString(slot + BLACK), readString(slot + NAME),
+                ChessGameCodec.decode(game));
+    }
+
+    private void writeSlot(int gameID, GameData gameData) {
+        byte[] game = ChessGameCodec.encode(gameData.game());
+        if (game.length > MAX_GAME_BYTES) {
+            throw new IllegalStateException("Encoded games no longer fit in a " + SLOT_SIZE + " byte slot");
+        }
+        int slot = slotOffset(gameID);
+        games.put(slot + FINISHED, (byte) (gameData.game().getIsFinished() ? 1 : 0));
+        writeString(slot + WHITE, gameData.whiteUsername());
+        writeString(slot + BLACK, gameData.blackUsername());
+        writeString(slot + NAME, gameData.gameName());
+        games.put(slot + GAME, (byte) game.length);
+        games.put(slot + GAME + 1, game);
+        // marked used last, so a game that was only half written is never read
+        games.put(slot + USED, (byte) 1);
+    }
+
+    // a length of 255 means null
+    private String readString(int offset) {
+        int length = Byte.toUnsignedInt(games.get(offset));
+        if (length == 255) {return null;}
+        byte[] bytes = new byte[length];
+        games.get(offset + 1, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private void writeString(int offset, String value) {
+        if (value == null) {
+            games.put(offset, (byte) 255);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        games.put(offset, (byte) bytes.length);
+        games.put(offset + 1, bytes);
+    }
+
+    static void checkLength(String value) throws DataAccessException {
+        if (value != null && value.getBytes(StandardCharsets.UTF_8).length > MAX_STRING_BYTES) {
+            throw new DataAccessException("Error: bad request");
+        }
+    }
+
+    // ---- users and auths ----
+
+    /**
+     * Runs a change to users or sessions along with its log record, then compacts the log if enough of it is dead.
+     * The record should be written inside the change, e.g. in a compute() call, like MemoryStore.change.
+     */
+    void change(Runnable change) {
+        recordsLock.readLock().lock();
+        try {
+            change.run();
+        } finally {
+            recordsLock.readLock().unlock();
+        }
+        if (deadRecords() > COMPACT_AFTER_DEAD_RECORDS) {compactAndLog();}
+    }
+
+    private int deadRecords() {
+        return logRecords - users.size() - sessions.size();
+    }
+
+    private void compactAndLog() {
+        recordsLock.writeLock().lock();
+        try {
+            // another change may have compacted while this one waited
+            if (deadRecords() > COMPACT_AFTER_DEAD_RECORDS) {compactRecords(directory.resolve("records.log"));}
+        } catch (IOException ex) {
+            System.out.println("Failed to compact " + directory.resolve("records.log") + ": " + ex.getMessage());
+        } finally {
+            recordsLock.writeLock().unlock();
+        }
+    }
+
+    void logUser(UserData user) {append(USER, user.username(), user.password(), user.email());}
+
+    void logAuth(AuthData auth) {append(AUTH, auth.authToken(), auth.username());}
+
+    void logAuthDeleted(String authToken) {append(DELETE_AUTH, authToken);}
+
+    void logUsersCleared() {append(CLEAR_USERS);}
+
+    void logAuthsCleared() {append(CLEAR_AUTHS);}
+
+    private void append(byte type, String... fields) {
+        ByteBuffer record = ByteBuffer.wrap(encodeRecord(type, fields));
+        logLock.lock();
+        try {
+            while (record.hasRemaining()) {log.write(record);}
+            logRecords++;
+        } catch (IOException ex) {
+            throw new IllegalStateException("Unable to write to " + directory.resolve("records.log"), ex);
+        } finally {
+            logLock.unlock();
+        }
+    }
+
+    private static byte[] encodeRecord(byte type, String... fields) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(type);
+            for (String field : fields) {
+                if (field == null) {
+                    out.writeShort(-1);
+                    continue;
+                }
+                byte[] utf8 = field.getBytes(StandardCharsets.UTF_8);
+                out.writeShort(utf8.length);
+                out.write(utf8);
+            }
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+        return bytes.toByteArray();
+    }
+
+    private void loadRecords() throws IOException {
+        Path path = directory.resolve("records.log");
+        ByteBuffer buffer = ByteBuffer.wrap(Files.exists(path) ? Files.readAllBytes(path) : new byte[0]);
+        long now = System.currentTimeMillis();
+        int goodLength = 0;
+        try {
+            while (buffer.hasRemaining()) {
+                byte type = buffer.get();
+                switch (type) {
+                    case USER -> {
+                        UserData user = new UserData(readField(buffer), readField(buffer), readField(buffer));
+                        users.put(user.username(), user);
+                    }
+                    case AUTH -> {
+                        AuthData auth = new AuthData(readField(buffer), readField(buffer));
+                        sessions.put(auth.authToken(), new MemoryStore.Session(auth, now));
+                    }
+                    case DELETE_AUTH -> sessions.remove(readField(buffer));
+                    case CLEAR_USERS -> users.clear();
+                    case CLEAR_AUTHS -> sessions.clear();
+                    default -> throw new IOException(path + " has an unknown record type " + type);
+                }
+                logRecords++;
+                goodLength = buffer.position();
+            }
+        } catch (BufferUnderflowException ex) {
+            // the process died partway through the last record, which gets cut off below
+        }
+
+        log = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        log.truncate(goodLength);
+        log.position(goodLength);
+        if (deadRecords() > COMPACT_AFTER_DEAD_RECORDS) {
+            compactRecords(path);
+        }
+    }
+
+    private static String readField(ByteBuffer buffer) {
+        short length = buffer.getShort();
+        if (length < 0) {return null;}
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private void compactRecords(Path path) throws IOException {
+        Path temp = directory.resolve("records.log.tmp");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (UserData user : users.values()) {
+                out.write(ByteBuffer.wrap(encodeRecord(USER, user.username(), user.password(), user.email())));
+            }
+            for (MemoryStore.Session session : sessions.values()) {
+                out.write(ByteBuffer.wrap(encodeRecord(AUTH, session.auth.authToken(), session.auth.username())));
+            }
+            out.force(true);
+        }
+        logLock.lock();
+        try {
+            // the old log stays open until the new one is in place, so a failed move leaves it still usable
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            log.close();
+            log = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            logRecords = users.size() + sessions.size();
+        } finally {
+            logLock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        mapLock.writeLock().lock();
+        try {
+            games.force();
+            gameChannel.close();
+        } finally {
+            mapLock.writeLock().unlock();
+        }
+        logLock.lock();
+        try {
+            log.force(true);
+            log.close();
+        } finally {
+            logLock.unlock();
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package dataaccess;
+
+import model.UserData;
+
+public class MappedUserDAO implements UserDAO {
+
+    private final MappedStore store;
+
+    public MappedUserDAO(MappedStore store) {this.store = store;}
+
+    public void createUser(UserData userData) throws DataAccessException {
+        // usernames end up in the games file's 64 byte player fields, so longer ones can't register
+        MappedStore.checkLength(userData.username());
+        boolean[] added = new boolean[1];
+        store.change(() -> store.users.computeIfAbsent(userData.username(), username -> {
+            store.logUser(userData);
+            added[0] = true;
+            return userData;
+        }));
+        if (!added[0]) {throw new AlreadyTakenException("Error: already taken");}
+    }
+
+    public UserData getUser(String username) throws DataAccessException {
+        UserData user = (username == null) ? null : store.users.get(username);
+        if (user == null) {throw new DataAccessException("Error: bad request");}
+        return user;
+    }
+
+    public void clear() {
+        store.change(() -> {
+            store.users.clear();
+            store.logUsersCleared();
+        });
+    }
+}
@@ -3,33 +3,53 @@ package dataaccess;
 import model.AuthData;
 import server.ResponseException;
 
-import java.util.ArrayList;
+import java.time.Duration;
 
 public class MemoryAuthDAO implements AuthDAO {
 
-    private final ArrayList<AuthData> authList = new ArrayList<>();
+    private final MemoryStore store;
+    private final IdleSessions idleSessions;
 
-    public void createAuth(AuthData auth) {authList.add(auth);}
+    public MemoryAuthDAO() {this(DEFAULT_IDLE_TIMEOUT);}
 
-    public AuthData getAuth(String authToken) throws DataAccessException {
-        for (AuthData auth : authList) {
-            if (auth.authToken().equals(authToken)) {return auth;}
-        }
-        throw new DataAccessException("Error: unauthorized");
+    public MemoryAuthDAO(Duration idleTimeout) {this(new MemoryStore(), idleTimeout);}
+
+    public MemoryAuthDAO(MemoryStore store, Duration idleTimeout) {
+        this.store = store;
+        this.idleSessions = new IdleSessions(store.sessions, idleTimeout, store::change, store::logAuthDeleted);
     }
 
+    public void createAuth(AuthData auth) {
+        store.change(() -> store.sessions.compute(auth.authToken(), (token, old) -> {
+            store.logAuth(auth);
+            return new MemoryStore.Session(auth, System.currentTimeMillis());
+        }));
+    }
+
+    public AuthData getAuth(String authToken) throws DataAccessException {
+        return idleSessions.use(authToken);
+    }
 
     public void deleteAuth(String authToken) throws ResponseException {
-        for (AuthData auth : authList) {
-            if (auth.authToken().equals(authToken)) {
-                authList.remove(auth);
-                return;
-            }
+        boolean[] removed = new boolean[1];
+        if (authToken != null) {
+            store.change(() -> store.sessions.computeIfPresent(authToken, (token, session) -> {
+                store.logAuthDeleted(token);
+                removed[0] = true;
+                return null;
+            }));
         }
-        throw new ResponseException("Error: bad request");
+        if (!removed[0]) {throw new ResponseException("Error: bad request");}
+    }
+
+    public int deleteExpired(int batchSize) {
+        return idleSessions.deleteExpired(batchSize);
     }
 
     public void clear() {
-        authList.clear();
+        store.change(() -> {
+            store.sessions.clear();
+            store.logCleared("auths");
+        });
     }
 }
@@ -2,56 +2,118 @@ package dataaccess;
 
 import chess.ChessGame;
 import model.GameData;
+import model.GameListQuery;
 import model.JoinData;
+import model.JsonFriendlyGameData;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Comparator;
+import java.util.Objects;
 
 public class MemoryGameDAO implements GameDAO {
 
-    ArrayList<GameData> gameList = new ArrayList<>();
-    private int gameIDCounter = 1;
+    private enum SeatResult {CLAIMED, TAKEN, NO_GAME}
 
-    // no constructor needed here, since it doesn't need any parameters (and thus super() works)
+    private final MemoryStore store;
+
+    public MemoryGameDAO() {this(new MemoryStore());}
+
+    public MemoryGameDAO(MemoryStore store) {this.store = store;}
 
     public int createGame(GameData incompleteGameData) {
-        GameData gameData = new GameData(gameIDCounter++, null, null, incompleteGameData.gameName(), new ChessGame());
-        gameList.add(gameData);
-        return gameData.gameID();
+        int gameID = store.nextGameID.getAndIncrement();
+        MemoryStore.StoredGame game = MemoryStore.StoredGame.of(gameID, null, null, incompleteGameData.gameName(),
+                new ChessGame());
+        store.change(() -> store.games.compute(gameID, (id, old) -> {
+            store.logGame(game);
+            return game;
+        }));
+        return gameID;
     }
 
     public GameData getGame(int gameID) throws DataAccessException {
-        for (GameData game : gameList) {
-            if (game.gameID() == gameID) {return game;}
+        MemoryStore.StoredGame game = store.games.get(gameID);
+        if (game == null) {throw new DataAccessException("Error: bad request");}
+        return game.toGameData();
+    }
+
+    public Collection<GameData> listGames() {
+        ArrayList<GameData> games = new ArrayList<>();
+        for (MemoryStore.StoredGame game : store.games.values()) {games.add(game.toGameData());}
+        return games;
+    }
+
+    public Collection<JsonFriendlyGameData> listGameSummaries(GameListQuery query) {
+        ArrayList<MemoryStore.StoredGame> sortedGames = new ArrayList<>();
+        for (MemoryStore.StoredGame game : store.games.values()) {
+            if (game.gameID() > query.afterGameID()) {sortedGames.add(game);}
+        }
+        sortedGames.sort(Comparator.comparingInt(MemoryStore.StoredGame::gameID));
+
+        ArrayList<JsonFriendlyGameData> summaries = new ArrayList<>();
+        for (MemoryStore.StoredGame game : sortedGames) {
+            if (query.limit() > 0 && summaries.size() == query.limit()) {break;}
+            if (query.player() != null && !query.player().equals(game.whiteUsername())
+                    && !query.player().equals(game.blackUsername())) {continue;}
+            if (query.openSeatsOnly() && game.whiteUsername() != null && game.blackUsername() != null) {continue;}
+            if (query.finished() != null && query.finished() != game.finished()) {continue;}
+            summaries.add(new JsonFriendlyGameData(game.gameID(), game.whiteUsername(), game.blackUsername(), game.gameName()));
         }
-        throw new DataAccessException("Error: bad request");
+        return summaries;
     }
 
-    public Collection<GameData> listGames() {return gameList;}
+    public void updateWhiteUsername(JoinData joinData, String username) throws DataAccessException {
+        claimSeat(joinData.gameID(), true, username);
+    }
+
+    public void updateBlackUsername(JoinData joinData, String username) throws DataAccessException {
+        claimSeat(joinData.gameID(), false, username);
+    }
 
-    public void updateWhiteUsername(JoinData joinData, String username) {
-        for (GameData game : gameList) {
-            if (game.gameID() == joinData.gameID()) {
-                GameData newGameData = new GameData(game.gameID(), username, game.blackUsername(), game.gameName(), game.game());
-                gameList.add(newGameData);
-                gameList.remove(game);
-                return;
+    private void claimSeat(int gameID, boolean white, String username) throws DataAccessException {
+        SeatResult[] result = {SeatResult.NO_GAME};
+        store.change(() -> store.games.computeIfPresent(gameID, (id, game) -> {
+            if ((white ? game.whiteUsername() : game.blackUsername()) != null) {
+                result[0] = SeatResult.TAKEN;
+                return game;
             }
-        }
+            MemoryStore.StoredGame claimed = game.withPlayers(white ? username : game.whiteUsername(),
+                    white ? game.blackUsername() : username);
+            store.logGame(claimed);
+            result[0] = SeatResult.CLAIMED;
+            return claimed;
+        }));
+        if (result[0] == SeatResult.TAKEN) {throw new AlreadyTakenException("Error: already taken");}
+        if (result[0] == SeatResult.NO_GAME) {throw new DataAccessException("Error: bad request");}
     }
 
-    public void updateBlackUsername(JoinData joinData, String username) {
-        for (GameData game : gameList) {
-            if (game.gameID() == joinData.gameID()) {
-                GameData newGameData = new GameData(game.gameID(), game.whiteUsername(), username, game.gameName(), game.game());
-                gameList.add(newGameData);
-                gameList.remove(game);
-                return;
+    public void updateGame(int gameID, ChessGame chessGame) {
+        store.change(() -> store.games.computeIfPresent(gameID, (id, game) -> {
+            MemoryStore.StoredGame updated = MemoryStore.StoredGame.of(id, game.whiteUsername(), game.blackUsername(),
+                    game.gameName(), chessGame);
+            store.logGame(updated);
+            return updated;
+        }));
+    }
+
+    public void removeUser(int gameID, String username) {
+        store.change(() -> store.games.computeIfPresent(gameID, (id, game) -> {
+            String white = Objects.equals(username, game.whiteUsername()) ? null : game.whiteUsername();
+            String black = Objects.equals(username, game.blackUsername()) ? null : game.blackUsername();
+            if (Objects.equals(white, game.whiteUsername()) && Objects.equals(black, game.blackUsername())) {
+                return game;
             }
-        }
+            MemoryStore.StoredGame updated = game.withPlayers(white, black);
+            store.logGame(updated);
+            return updated;
+        }));
     }
 
     public void clear() {
-        gameList.clear();
+        store.change(() -> {
+            store.games.clear();
+            store.logCleared("games");
+        });
     }
 }
@@ -0,0 +1,310 @@
+package dataaccess;
+
+import chess.ChessGame;
+import chess.ChessGameCodec;
+import com.google.gson.Gson;
+import model.AuthData;
+import model.GameData;
+import model.UserData;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * The data behind the Memory*DAOs, shared so one store can back all three.
+ * <p>
+ * On its own it's just concurrent maps. Given a directory, every change is also appended to journal.log, and a
+ * snapshot of everything is written every so often, after which the journal starts over. Loading reads the snapshot
+ * and replays the journal on top of it. Journal entries hold whole records rather than changes, so replaying one
+ * that's already in the snapshot is harmless. Entries are flushed to the OS right away, so they survive the process
+ * crashing but not the machine losing power between snapshots.
+ */
+public class MemoryStore implements AutoCloseable {
+
+    static final class Session {
+        final AuthData auth;
+        volatile long lastUsed;
+
+        Session(AuthData auth, long lastUsed) {
+            this.auth = auth;
+            this.lastUsed = lastUsed;
+        }
+    }
+
+    // games are stored in the ChessGameCodec format, so nobody can change a stored game by holding onto it
+    // finished is kept next to the encoded game so listing games can filter on it without decoding
+    record StoredGame(int gameID, String whiteUsername, String blackUsername, String gameName, String game,
+                      boolean finished) {
+        static StoredGame of(int gameID, String whiteUsername, String blackUsername, String gameName, ChessGame game) {
+            return new StoredGame(gameID, whiteUsername, blackUsername, gameName,
+                    Base64.getEncoder().encodeToString(ChessGameCodec.encode(game)), game.getIsFinished());
+        }
+
+        StoredGame withPlayers(String whiteUsername, String blackUsername) {
+            return new StoredGame(gameID, whiteUsername, blackUsername, gameName, game, finished);
+        }
+
+        // files from before the flag existed read it as false, so it's worked out again from the game once
+        private StoredGame withFinishedFromGame() {
+            boolean fromGame = toGameData().game().getIsFinished();
+            return (fromGame == finished) ? this
+                    : new StoredGame(gameID, whiteUsername, blackUsername, gameName, game, fromGame);
+        }
+
+        GameData toGameData() {
+            return new GameData(gameID, whiteUsername, blackUsername, gameName,
+                    ChessGameCodec.decode(Base64.getDecoder().decode(game)));
+        }
+    }
+
+    private record JournalEntry(String op, UserData user, AuthData auth, StoredGame game, String key) {}
+
+    private record Snapshot(int nextGameID, List<UserData> users, List<AuthData> auths, List<StoredGame> games) {}
+
+    private static final long SHUTDOWN_WAIT_SECONDS = 30;
+
+    final ConcurrentHashMap<String, UserData> users = new ConcurrentHashMap<>();
+    final ConcurrentHashMap<String, Session> sessions = new ConcurrentHashMap<>();
+    final ConcurrentHashMap<Integer, StoredGame> games = new ConcurrentHashMap<>();
+    final AtomicInteger nextGameID = new AtomicInteger(1);
+
+    private final Gson gson = new Gson();
+    private final Path directory;
+    // changes hold the read lock while they update a map and write their entry, a snapshot takes the write lock
+    // while it swaps journals, so every entry is either in the old journal or after the snapshot
+    private final ReentrantReadWriteLock snapshotLock = new ReentrantReadWriteLock();
+    // a lock rather than synchronized, so a virtual thread waiting on the disk doesn't pin its carrier
+    private final ReentrantLock journalLock = new ReentrantLock();
+    // one snapshot at a time, they share the temp file and the old journal
+    private final ReentrantLock snapshotWriteLock = new ReentrantLock();
+    private BufferedWriter journal;
+    private ScheduledExecutorService snapshotScheduler;
+
+    /**
+     * A store that only lives in memory.
+     */
+    public MemoryStore() {
+        this.directory = null;
+    }
+
+    private MemoryStore(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Loads the store from directory, creating it if needed, and snapshots it every snapshotIntervalSeconds.
+     */
+    public static MemoryStore open(Path directory, long snapshotIntervalSeconds) throws IOException {
+        MemoryStore store = new MemoryStore(directory);
+        Files.createDirectories(directory);
+        store.load();
+        store.journal = store.openJournal();
+        store.snapshotScheduler = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "memory-store-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        store.snapshotScheduler.scheduleWithFixedDelay(store::snapshotAndLog,
+                snapshotIntervalSeconds, snapshotIntervalSeconds, TimeUnit.SECONDS);
+        return store;
+    }
+
+    void logUser(UserData user) {log(new JournalEntry("user", user, null, null, null));}
+
+    void logAuth(AuthData auth) {log(new JournalEntry("auth", null, auth, null, null));}
+
+    void logAuthDeleted(String authToken) {log(new JournalEntry("deleteAuth", null, null, null, authToken));}
+
+    void logGame(StoredGame game) {log(new JournalEntry("game", null, null, game, null));}
+
+    void logCleared(String what) {log(new JournalEntry("clear", null, null, null, what));}
+
+    /**
+     * Runs a change and its journal entry so a snapshot can't happen in between.
+     * The entry should be written inside the change, e.g. in a compute() call, so entries for the same key
+     * end up in the same order as the changes.
+     */
+    void change(Runnable change) {
+        snapshotLock.readLock().lock();
+        try {
+            change.run();
+        } finally {
+            snapshotLock.readLock().unlock();
+        }
+    }
+
+    private void log(JournalEntry entry) {
+        if (directory == null) {return;}
+        String line = gson.toJson(entry);
+        journalLock.lock();
+        try {
+            journal.write(line);
+            journal.newLine();
+            journal.flush();
+        } catch (IOException ex) {
+            throw new IllegalStateException("Unable to write to the journal in " + directory, ex);
+        } finally {
+            journalLock.unlock();
+        }
+    }
+
+    public void snapshot() throws IOException {
+        if (directory == null) {return;}
+        snapshotWriteLock.lock();
+        try {
+            writeSnapshot(rotateJournal());
+        } finally {
+            snapshotWriteLock.unlock();
+        }
+    }
+
+    // moves the journal aside and copies everything it covers, with changes held off
+    private Snapshot rotateJournal() throws IOException {
+        snapshotLock.writeLock().lock();
+        try {
+            journalLock.lock();
+            try {
+                journal.close();
+                if (Files.exists(oldJournalPath())) {
+                    // the last snapshot failed, so the old journal still has entries no snapshot covers. Crashing
+                    // before the delete replays these entries twice, which leaves the same state as once.
+                    try (OutputStream out = Files.newOutputStream(oldJournalPath(), StandardOpenOption.APPEND)) {
+                        Files.copy(journalPath(), out);
+                    }
+                    Files.delete(journalPath());
+                } else {
+                    Files.move(journalPath(), oldJournalPath());
+                }
+            } finally {
+                // the current journal again if the rotation failed, changes keep going to it either way
+                journal = openJournal();
+                journalLock.unlock();
+            }
+            List<AuthData> auths = new ArrayList<>();
+            for (Session session : sessions.values()) {auths.add(session.auth);}
+            return new Snapshot(nextGameID.get(), new ArrayList<>(users.values()), auths,
+                    new ArrayList<>(games.values()));
+        } finally {
+            snapshotLock.writeLock().unlock();
+        }
+    }
+
+    // the old journal is only deleted once the snapshot covering it is safely on disk
+    private void writeSnapshot(Snapshot snapshot) throws IOException {
+        Path temp = directory.resolve("snapshot.json.tmp");
+        Files.writeString(temp, gson.toJson(snapshot), StandardCharsets.UTF_8);
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(temp, snapshotPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.deleteIfExists(oldJournalPath());
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (directory == null) {return;}
+        snapshotScheduler.shutdownNow();
+        try {
+            // a scheduled snapshot that's already running finishes first, then this one covers what's left
+            if (!snapshotScheduler.awaitTermination(SHUTDOWN_WAIT_SECONDS, TimeUnit.SECONDS)) {
+                System.out.println("Gave up waiting on the memory store's scheduled snapshot");
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        snapshot();
+        journalLock.lock();
+        try {
+            journal.close();
+        } finally {
+            journalLock.unlock();
+        }
+    }
+
+    private void snapshotAndLog() {
+        try {
+            snapshot();
+        } catch (IOException | RuntimeException ex) {
+            System.out.println("Failed to snapshot the memory store: " + ex.getMessage());
+        }
+    }
+
+    private void load() throws IOException {
+        if (Files.exists(snapshotPath())) {
+            Snapshot snapshot = gson.fromJson(Files.readString(snapshotPath(), StandardCharsets.UTF_8), Snapshot.class);
+            nextGameID.set(snapshot.nextGameID());
+            long now = System.currentTimeMillis();
+            for (UserData user : snapshot.users()) {users.put(user.username(), user);}
+            for (AuthData auth : snapshot.auths()) {sessions.put(auth.authToken(), new Session(auth, now));}
+            for (StoredGame game : snapshot.games()) {games.put(game.gameID(), game.withFinishedFromGame());}
+        }
+        // the old journal is only still there if the last snapshot didn't finish
+        replay(oldJournalPath());
+        replay(journalPath());
+    }
+
+    private void replay(Path path) throws IOException {
+        if (!Files.exists(path)) {return;}
+        long now = System.currentTimeMillis();
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {continue;}
+                JournalEntry entry;
+                try {
+                    entry = gson.fromJson(line, JournalEntry.class);
+                } catch (RuntimeException ex) {
+                    // a crash in the middle of a write leaves a partial last line
+                    break;
+                }
+                switch (entry.op()) {
+                    case "user" -> users.put(entry.user().username(), entry.user());
+                    case "auth" -> sessions.put(entry.auth().authToken(), new Session(entry.auth(), now));
+                    case "deleteAuth" -> sessions.remove(entry.key());
+                    case "game" -> {
+                        games.put(entry.game().gameID(), entry.game().withFinishedFromGame());
+                        nextGameID.accumulateAndGet(entry.game().gameID() + 1, Math::max);
+                    }
+                    case "clear" -> {
+                        switch (entry.key()) {
+                            case "users" -> users.clear();
+                            case "auths" -> sessions.clear();
+                            case "games" -> games.clear();
+                            default -> throw new IOException("Unknown journal entry " + line);
+                        }
+                    }
+                    default -> throw new IOException("Unknown journal entry " + line);
+                }
+            }
+        }
+    }
+
+    private BufferedWriter openJournal() throws IOException {
+        return Files.newBufferedWriter(journalPath(), StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    private Path snapshotPath() {return directory.resolve("snapshot.json");}
+
+    private Path journalPath() {return directory.resolve("journal.log");}
+
+    private Path oldJournalPath() {return directory.resolve("journal.old.log");}
+}
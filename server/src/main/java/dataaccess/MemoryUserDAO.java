@@ -1,34 +1,36 @@
 package dataaccess;
 
 import model.UserData;
-import server.ResponseException;
-
-import java.util.ArrayList;
 
 public class MemoryUserDAO implements UserDAO {
 
-    private final ArrayList<UserData> userList = new ArrayList<>();
-
-    public void createUser(UserData userData) throws ResponseException {
-        try {
-            getUser(userData.username());
-        }
-        catch (DataAccessException e) {
-            userList.add(userData);
-            return;
-        }
-        // you only reach here if the username is already taken
-        throw new ResponseException("Error: already taken");
+    private final MemoryStore store;
+
+    public MemoryUserDAO() {this(new MemoryStore());}
+
+    public MemoryUserDAO(MemoryStore store) {this.store = store;}
+
+    public void createUser(UserData userData) throws DataAccessException {
+        boolean[] added = new boolean[1];
+        store.change(() -> store.users.computeIfAbsent(userData.username(), username -> {
+            store.logUser(userData);
+            added[0] = true;
+            return userData;
+        }));
+        // you only get here without adding if the username is already taken
+        if (!added[0]) {throw new AlreadyTakenException("Error: already taken");}
     }
 
     public UserData getUser(String username) throws DataAccessException {
-        for (UserData user : userList) {
-            if (user.username().equals(username)) {return user;}
-        }
-        throw new DataAccessException("Error: bad request");
+        UserData user = (username == null) ? null : store.users.get(username);
+        if (user == null) {throw new DataAccessException("Error: bad request");}
+        return user;
     }
 
     public void clear() {
-        userList.clear();
+        store.change(() -> {
+            store.users.clear();
+            store.logCleared("users");
+        });
     }
 }
@@ -0,0 +1,97 @@
+package dataaccess;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Connections to one read replica, plus whether it's currently fit to read from.
+ * <p>
+ * A replica is skipped while it's more than maxLagSeconds behind, while replication is stopped, or after it
+ * failed to hand out a connection. That's rechecked at most once per CHECK_INTERVAL_MILLIS, by whichever reader
+ * happens to notice the last check is old, so reads don't pay for a status query every time.
+ */
+class ReplicaPool {
+
+    static final long CHECK_INTERVAL_MILLIS = 1_000;
+
+    private final String endpoint;
+    private final ConnectionPool pool;
+    private final long maxLagSeconds;
+    private final AtomicBoolean checking = new AtomicBoolean(false);
+    private volatile boolean usable = true;
+    private volatile long checkedAt = 0;
+
+    ReplicaPool(String endpoint, ConnectionPool pool, long maxLagSeconds) {
+        this.endpoint = endpoint;
+        this.pool = pool;
+        this.maxLagSeconds = maxLagSeconds;
+    }
+
+    /**
+     * @return a connection to the replica, or null if it's too far behind or unreachable
+     */
+    Connection getConnection() {
+        if (System.currentTimeMillis() - checkedAt >= CHECK_INTERVAL_MILLIS && checking.compareAndSet(false, true)) {
+            try {
+                usable = isCaughtUp();
+                checkedAt = System.currentTimeMillis();
+            } finally {
+                checking.set(false);
+            }
+        }
+        if (!usable) {return null;}
+        try {
+            return pool.getConnection();
+        } catch (DataAccessException ex) {
+            markUnusable(ex.getMessage());
+            return null;
+        }
+    }
+
+    void close() {
+        pool.close();
+    }
+
+    private boolean isCaughtUp() {
+        try (Connection conn = pool.getConnection();
+             Statement statement = conn.createStatement();
+             ResultSet rs = statement.executeQuery("SHOW REPLICA STATUS")) {
+            // no rows means it isn't replicating from anything, e.g. a proxy in front of the replicas
+            if (!rs.next()) {return true;}
+            Long lag = secondsBehind(rs);
+            if (lag == null) {
+                System.out.println("Replica " + endpoint + " isn't replicating, reading from the primary");
+                return false;
+            }
+            return lag <= maxLagSeconds;
+        } catch (SQLException | DataAccessException ex) {
+            System.out.println("Unable to check replica " + endpoint + ", reading from the primary: " + ex.getMessage());
+            return false;
+        }
+    }
+
+    // MySQL calls the column Seconds_Behind_Source, MariaDB still calls it Seconds_Behind_Master
+    private static Long secondsBehind(ResultSet rs) throws SQLException {
+        ResultSetMetaData metaData = rs.getMetaData();
+        for (int i = 1; i <= metaData.getColumnCount(); i++) {
+            String column = metaData.getColumnLabel(i);
+            if (column.equalsIgnoreCase("Seconds_Behind_Source") || column.equalsIgnoreCase("Seconds_Behind_Master")) {
+                long lag = rs.getLong(i);
+                return rs.wasNull() ? null : lag;
+            }
+        }
+        return null;
+    }
+
+    private void markUnusable(String reason) {
+        if (usable) {
+            System.out.println("Replica " + endpoint + " is unavailable, reading from the primary: " + reason);
+        }
+        usable = false;
+        checkedAt = System.currentTimeMillis();
+    }
+}
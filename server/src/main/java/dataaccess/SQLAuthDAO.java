@@ -7,9 +7,19 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.time.Duration;
 
 public class SQLAuthDAO implements AuthDAO {
 
+    // lastused only gets written when it's at least this old, so most lookups stay read-only
+    private static final long TOUCH_AFTER_SECONDS = 300;
+
+    private final long idleTimeoutSeconds;
+
+    public SQLAuthDAO() {this(DEFAULT_IDLE_TIMEOUT);}
+
+    public SQLAuthDAO(Duration idleTimeout) {this.idleTimeoutSeconds = idleTimeout.toSeconds();}
+
     public void createAuth(AuthData authData) throws ResponseException { // throws ResponseException
         var statement = "INSERT INTO auths (authtoken, username) VALUES (?, ?)";
         try (Connection conn = DatabaseManager.getConnection()) {
@@ -30,19 +40,34 @@ public class SQLAuthDAO implements AuthDAO {
     }
 
     public AuthData getAuth(String authToken) throws DataAccessException, ResponseException {
-        var statement = "SELECT authtoken, username from auths WHERE authtoken = ?";
+        var statement = "SELECT authtoken, username, lastused < NOW() - INTERVAL ? SECOND AS stale from auths " +
+                "WHERE authtoken = ? AND lastused >= NOW() - INTERVAL ? SECOND";
+        record Found(AuthData auth, boolean stale) {}
+        Found found = null;
+        // always the primary, a replica that hasn't seen a logout yet would still accept the token
         try (Connection conn = DatabaseManager.getConnection()) {
             try (PreparedStatement ps = conn.prepareStatement(statement)) {
-                ps.setString(1, authToken);
+                ps.setLong(1, TOUCH_AFTER_SECONDS);
+                ps.setString(2, authToken);
+                ps.setLong(3, idleTimeoutSeconds);
                 ResultSet rs = ps.executeQuery();
-                if (rs.next()) {
-                    return readAuth(rs);
-                }
+                if (rs.next()) {found = new Found(readAuth(rs), rs.getBoolean("stale"));}
+            }
+            if (found != null && found.stale()) {
+                touchAuth(conn, authToken);
             }
         } catch (SQLException | DataAccessException e) {
             throw new ResponseException("Error: Unable to update database");
         }
-        throw new DataAccessException("Error: No authData exists with the given authToken");
+        if (found == null) {throw new DataAccessException("Error: No authData exists with the given authToken");}
+        return found.auth();
+    }
+
+    private void touchAuth(Connection conn, String authToken) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement("UPDATE auths SET lastused = NOW() WHERE authtoken = ?")) {
+            ps.setString(1, authToken);
+            ps.executeUpdate();
+        }
     }
 
     public void deleteAuth(String authToken) throws ResponseException {
@@ -57,6 +82,20 @@ public class SQLAuthDAO implements AuthDAO {
         }
     }
 
+    public int deleteExpired(int batchSize) throws ResponseException {
+        // uses the auths_lastused index, and the LIMIT keeps each delete short
+        var statement = "DELETE FROM auths WHERE lastused < NOW() - INTERVAL ? SECOND LIMIT ?";
+        try (Connection conn = DatabaseManager.getConnection()) {
+            try (PreparedStatement ps = conn.prepareStatement(statement)) {
+                ps.setLong(1, idleTimeoutSeconds);
+                ps.setInt(2, batchSize);
+                return ps.executeUpdate();
+            }
+        } catch (SQLException | DataAccessException e) {
+            throw new ResponseException("Error: Unable to update database");
+        }
+    }
+
     public void clear() throws ResponseException {
         var statement = "TRUNCATE auths";
         try (Connection conn = DatabaseManager.getConnection()) {
@@ -67,6 +106,4 @@ public class SQLAuthDAO implements AuthDAO {
             throw new ResponseException("Error: Unable to update database");
         }
     }
-
-
 }
@@ -1,11 +1,15 @@
 package dataaccess;
 
 import chess.ChessGame;
+import chess.ChessGameCodec;
 import com.google.gson.Gson;
 import model.GameData;
+import model.GameListQuery;
 import model.JoinData;
+import model.JsonFriendlyGameData;
 import server.ResponseException;
 
+import java.nio.charset.StandardCharsets;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -18,13 +22,18 @@ import static java.sql.Statement.RETURN_GENERATED_KEYS;
 public class SQLGameDAO implements GameDAO {
 
     private final Gson gson = new Gson();
+    private final ConnectionSource db;
+
+    public SQLGameDAO() {this(ConnectionSource.MAIN);}
+
+    SQLGameDAO(ConnectionSource db) {this.db = db;}
 
     public int createGame(GameData gameData) throws ResponseException {
         var statement = "INSERT INTO games (gamename, chessgame) VALUES (?, ?)";
-        try (Connection conn = DatabaseManager.getConnection()) {
+        try (Connection conn = db.getConnection()) {
             try (PreparedStatement ps = conn.prepareStatement(statement, RETURN_GENERATED_KEYS)) {
                 ps.setString(1, gameData.gameName());
-                ps.setString(2, gson.toJson(new ChessGame()));
+                ps.setBytes(2, ChessGameCodec.encode(new ChessGame()));
                 ps.executeUpdate();
                 ResultSet rs = ps.getGeneratedKeys();
                 if (rs.next()) {
@@ -37,18 +46,41 @@ public class SQLGameDAO implements GameDAO {
         throw new ResponseException("Error: did not return an integer");
     }
 
+    // for when the id was handed out somewhere else, like ShardedGameDAO's allocator
+    void createGame(int gameID, GameData gameData) throws ResponseException {
+        var statement = "INSERT INTO games (gameid, gamename, chessgame) VALUES (?, ?, ?)";
+        try (Connection conn = db.getConnection()) {
+            try (PreparedStatement ps = conn.prepareStatement(statement)) {
+                ps.setInt(1, gameID);
+                ps.setString(2, gameData.gameName());
+                ps.setBytes(3, ChessGameCodec.encode(new ChessGame()));
+                ps.executeUpdate();
+            }
+        } catch (SQLException | DataAccessException e) {
+            throw new ResponseException("Error: Unable to update database");
+        }
+    }
+
     private GameData readGame(ResultSet rs) throws SQLException {
         int gameID = rs.getInt("gameid");
         String whiteUsername = rs.getString("whiteusername");
         String blackUsername = rs.getString("blackusername");
         String gameName = rs.getString("gamename");
-        ChessGame chessGame = gson.fromJson(rs.getString("chessgame"), ChessGame.class);
+        ChessGame chessGame = decodeGame(rs.getBytes("chessgame"));
         return new GameData(gameID, whiteUsername, blackUsername, gameName, chessGame);
     }
 
+    private ChessGame decodeGame(byte[] bytes) {
+        // rows written before the binary format are JSON text, so fall back to gson for those
+        if (bytes != null && bytes.length > 0 && bytes[0] == '{') {
+            return gson.fromJson(new String(bytes, StandardCharsets.UTF_8), ChessGame.class);
+        }
+        return ChessGameCodec.decode(bytes);
+    }
+
     public GameData getGame(int gameID) throws DataAccessException, ResponseException {
         var statement = "SELECT gameid, whiteusername, blackusername, gamename, chessgame from games WHERE gameid = ?";
-        try (Connection conn = DatabaseManager.getConnection()) {
+        try (Connection conn = db.getConnection()) {
             try (PreparedStatement ps = conn.prepareStatement(statement)) {
                 ps.setInt(1, gameID);
                 ResultSet rs = ps.executeQuery();
@@ -62,9 +94,27 @@ public class SQLGameDAO implements GameDAO {
         throw new DataAccessException("Error: no gameData with given gameID");
     }
 
+    public GameData viewGame(int gameID) throws DataAccessException, ResponseException {
+        var statement = "SELECT gameid, whiteusername, blackusername, gamename, chessgame from games WHERE gameid = ?";
+        GameData game;
+        try {
+            game = db.readWithFallback(conn -> {
+                try (PreparedStatement ps = conn.prepareStatement(statement)) {
+                    ps.setInt(1, gameID);
+                    ResultSet rs = ps.executeQuery();
+                    return rs.next() ? readGame(rs) : null;
+                }
+            });
+        } catch (SQLException | DataAccessException e) {
+            throw new ResponseException("Error: Unable to update database");
+        }
+        if (game == null) {throw new DataAccessException("Error: no gameData with given gameID");}
+        return game;
+    }
+
     public Collection<GameData> listGames() throws ResponseException {
         var statement = "SELECT gameid, whiteusername, blackusername, gamename, chessgame from games";
-        try (Connection conn = DatabaseManager.getConnection()) {
+        try (Connection conn = db.getReadConnection()) {
             try (PreparedStatement ps = conn.prepareStatement(statement)) {
                 ResultSet rs = ps.executeQuery();
                 ArrayList<GameData> gameList = new ArrayList<>();
@@ -79,46 +129,111 @@ public class SQLGameDAO implements GameDAO {
 
     }
 
-    private void isTaken(String color, int gameID) throws DataAccessException, ResponseException {
-        GameData gameData = getGame(gameID);
-        if (color.equals("white")) {
-            if (gameData.whiteUsername() != null) {throw new DataAccessException("Error: username is already taken");}
-        }
-        else {
-            if (gameData.blackUsername() != null) {throw new DataAccessException("Error: username is already taken");}
-        }
+    public Collection<JsonFriendlyGameData> listGameSummaries(GameListQuery query) throws ResponseException {
+        // never select chessgame here, listing games shouldn't have to read or decode any boards
+        // and it's fine for the list to be a moment behind, so it can come from a replica
+        StringBuilder statement = new StringBuilder("SELECT gameid, whiteusername, blackusername, gamename FROM games WHERE gameid > ?");
+        if (query.player() != null) {statement.append(" AND (whiteusername = ? OR blackusername = ?)");}
+        if (query.openSeatsOnly()) {statement.append(" AND (whiteusername IS NULL OR blackusername IS NULL)");}
+        if (query.finished() != null) {statement.append(" AND isfinished = ?");}
+        statement.append(" ORDER BY gameid");
+        if (query.limit() > 0) {statement.append(" LIMIT ?");}
+
+        try (Connection conn = db.getReadConnection()) {
+            try (PreparedStatement ps = conn.prepareStatement(statement.toString())) {
+                int index = 1;
+                ps.setInt(index++, query.afterGameID());
+                if (query.player() != null) {
+                    ps.setString(index++, query.player());
+                    ps.setString(index++, query.player());
+                }
+                if (query.finished() != null) {ps.setBoolean(index++, query.finished());}
+                if (query.limit() > 0) {ps.setInt(index, query.limit());}
 
+                ResultSet rs = ps.executeQuery();
+                ArrayList<JsonFriendlyGameData> summaries = new ArrayList<>();
+                while (rs.next()) {
+                    summaries.add(new JsonFriendlyGameData(
+                            rs.getInt("gameid"),
+                            rs.getString("whiteusername"),
+                            rs.getString("blackusername"),
+                            rs.getString("gamename"))
+                    );
+                }
+                return summaries;
+            }
+        } catch (SQLException | DataAccessException e) {
+            throw new ResponseException("Error: Unable to update database");
+        }
     }
 
-    private void doUpdateUsernameSQL(String statement, String username, int gameID) throws ResponseException {
-        try (Connection conn = DatabaseManager.getConnection()) {
+    // claims the seat in one statement, so two players can't both take it between a read and a write
+    private void claimSeat(String statement, String username, int gameID) throws DataAccessException, ResponseException {
+        boolean gameExists;
+        try (Connection conn = db.getConnection()) {
             try (PreparedStatement ps = conn.prepareStatement(statement)) {
                 ps.setString(1, username);
                 ps.setInt(2, gameID);
-                ps.executeUpdate();
+                if (ps.executeUpdate() == 1) {return;}
+            }
+            // nothing was updated, so either the game doesn't exist or someone already has the seat
+            try (PreparedStatement ps = conn.prepareStatement("SELECT gameid FROM games WHERE gameid = ?")) {
+                ps.setInt(1, gameID);
+                gameExists = ps.executeQuery().next();
             }
         } catch (SQLException | DataAccessException e) {
             throw new ResponseException("Error: Unable to update database");
         }
+        if (!gameExists) {throw new DataAccessException("Error: bad request");}
+        throw new AlreadyTakenException("Error: already taken");
     }
 
     public void updateWhiteUsername(JoinData joinData, String username) throws DataAccessException, ResponseException {
-        isTaken("white", joinData.gameID());
-
-        var statement = "UPDATE games SET whiteusername = ? WHERE gameid = ?";
-        doUpdateUsernameSQL(statement, username, joinData.gameID());
+        var statement = "UPDATE games SET whiteusername = ? WHERE gameid = ? AND whiteusername IS NULL";
+        claimSeat(statement, username, joinData.gameID());
     }
 
     public void updateBlackUsername(JoinData joinData, String username) throws DataAccessException, ResponseException {
-        isTaken("black", joinData.gameID());
+        var statement = "UPDATE games SET blackusername = ? WHERE gameid = ? AND blackusername IS NULL";
+        claimSeat(statement, username, joinData.gameID());
+    }
 
-        var statement = "UPDATE games SET blackusername = ? WHERE gameid = ?";
-        doUpdateUsernameSQL(statement, username, joinData.gameID());
+    public void updateGame(int gameID, ChessGame game) throws ResponseException {
+        var statement = "UPDATE games SET chessgame = ?, isfinished = ? WHERE gameid = ?";
+        try (Connection conn = db.getConnection()) {
+            try (PreparedStatement ps = conn.prepareStatement(statement)) {
+                ps.setBytes(1, ChessGameCodec.encode(game));
+                ps.setBoolean(2, game.getIsFinished());
+                ps.setInt(3, gameID);
+                ps.executeUpdate();
+            }
+        } catch (SQLException | DataAccessException e) {
+            throw new ResponseException("Error: Unable to update database");
+        }
+    }
+
+    public void removeUser(int gameID, String username) throws ResponseException {
+        var statement = "UPDATE games SET " +
+                "whiteusername = CASE WHEN whiteusername = ? THEN NULL ELSE whiteusername END," +
+                "blackusername = CASE WHEN blackusername = ? THEN NULL ELSE blackusername END" +
+                " WHERE gameid = ? AND (whiteusername = ? OR blackusername = ?)";
+        try (Connection conn = db.getConnection()) {
+            try (PreparedStatement ps = conn.prepareStatement(statement)) {
+                ps.setString(1, username);
+                ps.setString(2, username);
+                ps.setInt(3, gameID);
+                ps.setString(4, username);
+                ps.setString(5, username);
+                ps.executeUpdate();
+            }
+        } catch (SQLException | DataAccessException e) {
+            throw new ResponseException("Error: Unable to update database" + e.getMessage());
+        }
     }
 
     public void clear() throws ResponseException {
         var statement = "TRUNCATE games";
-        try (Connection conn = DatabaseManager.getConnection()) {
+        try (Connection conn = db.getConnection()) {
             try (PreparedStatement ps = conn.prepareStatement(statement)) {
                 ps.executeUpdate();
             }
@@ -1,7 +1,6 @@
 package dataaccess;
 
 import model.UserData;
-import org.mindrot.jbcrypt.BCrypt;
 import server.ResponseException;
 
 import java.sql.Connection;
@@ -27,7 +26,7 @@ public class SQLUserDAO implements UserDAO {
             throw new ResponseException("Error: Unable to update database");
         }
         catch (Exception ex) {
-            throw new DataAccessException("Error: " + ex.getMessage());
+            throw new AlreadyTakenException("Error: " + ex.getMessage());
         }
     }
 
@@ -39,9 +38,8 @@ public class SQLUserDAO implements UserDAO {
         try (Connection conn = DatabaseManager.getConnection()) {
             try (PreparedStatement ps = conn.prepareStatement(statement)) {
                 ps.setString(1, userData.username());
-//                ps.setString(2, userData.password());
-                String hashedPassword = BCrypt.hashpw(userData.password(), BCrypt.gensalt());
-                ps.setString(2, hashedPassword);
+                // UserService hashes the password before it gets here
+                ps.setString(2, userData.password());
                 ps.setString(3, userData.email());
                 ps.executeUpdate();
             }
@@ -60,18 +58,19 @@ public class SQLUserDAO implements UserDAO {
 
     public UserData getUser(String username) throws DataAccessException, ResponseException {
         var statement = "SELECT username, password, email FROM users WHERE username = ?";
+        UserData user = null;
+        // the primary, so a login can't use a user that's already been cleared but not yet on a replica
         try (Connection conn = DatabaseManager.getConnection()) {
             try (PreparedStatement ps = conn.prepareStatement(statement)) {
                 ps.setString(1, username);
                 ResultSet rs = ps.executeQuery();
-                if (rs.next()) {
-                    return readUser(rs);
-                }
+                if (rs.next()) {user = readUser(rs);}
             }
         } catch (SQLException | DataAccessException e) {
             throw new ResponseException("Error: Unable to update database");
         }
-        throw new DataAccessException("Error: No user with the given username");
+        if (user == null) {throw new DataAccessException("Error: No user with the given username");}
+        return user;
     }
 
     public void clear() throws ResponseException {
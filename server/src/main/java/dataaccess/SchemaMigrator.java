@@ -0,0 +1,300 @@
+package dataaccess;
+
+import chess.ChessGame;
+import chess.ChessGameCodec;
+import com.google.gson.Gson;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Brings the database schema up to date by running every migration that hasn't been applied yet, in version order.
+ * <p>
+ * Applied migrations are recorded in schema_version with a checksum of their definition. If an applied migration's
+ * checksum no longer matches, someone edited it after it shipped, so startup fails instead of guessing.
+ * Never change or reorder a migration once it's been released, add a new one to the end of the list instead.
+ * <p>
+ * A SQL migration's checksum covers its statements. A code migration's covers its description and a revision
+ * number, since the code itself can't be hashed, so bump the revision whenever the code changes.
+ */
+public class SchemaMigrator {
+
+    private interface Step {
+        void apply(Connection conn) throws SQLException;
+    }
+
+    /**
+     * @param checksumSource the text the checksum is computed from, the SQL itself or a code migration's description
+     *                       and revision
+     */
+    private record Migration(int version, String description, String checksumSource, Step step) {}
+
+    private static final String LOCK_NAME = "chess_schema_migration";
+    private static final int LOCK_TIMEOUT_SECONDS = 60;
+
+    // the database existed before migrations did, so the early steps check whether their change is already there
+    private static final List<Migration> MIGRATIONS = List.of(
+            sql(1, "create users, auths, and games tables",
+                    """
+                    CREATE TABLE IF NOT EXISTS users (
+                    `username` varchar(50) NOT NULL,
+                    `password` varchar(100) NOT NULL,
+                    `email` varchar(50),
+                    PRIMARY KEY (`username`)
+                    )
+                    """,
+                    """
+                    CREATE TABLE IF NOT EXISTS auths (
+                    `authtoken` varchar(50) NOT NULL,
+                    `username` varchar(50) NOT NULL,
+                    PRIMARY KEY (`authtoken`)
+                    )
+                    """,
+                    """
+                    CREATE TABLE IF NOT EXISTS games (
+                    `gameid` int NOT NULL AUTO_INCREMENT,
+                    `whiteusername` varchar(50),
+                    `blackusername` varchar(50),
+                    `gamename` varchar(50) NOT NULL,
+                    `chessgame` TEXT,
+                    PRIMARY KEY (`gameid`)
+                    )
+                    """),
+            code(2, 1, "store games.chessgame as a BLOB in the ChessGameCodec format, converting JSON rows",
+                    SchemaMigrator::convertJsonGames),
+            code(3, 1, "add games.isfinished with index games_finished (isfinished, gameid), filled from chessgame",
+                    SchemaMigrator::addFinishedColumn),
+            code(4, 1, "add indexes games_white (whiteusername), games_black (blackusername), auths_username (username)",
+                    conn -> {
+                        createIndexIfMissing(conn, "games", "games_white", "whiteusername");
+                        createIndexIfMissing(conn, "games", "games_black", "blackusername");
+                        createIndexIfMissing(conn, "auths", "auths_username", "username");
+                    }),
+            // MySQL commits each DDL statement on its own, so a failure between these two would leave the columns
+            // without the index. Each statement is skipped if its change is already there, so a rerun finishes it.
+            guardedSql(5, "add auths.createdat and auths.lastused, with index auths_lastused for expiring idle sessions",
+                    conn -> !columnExists(conn, "auths", "lastused"),
+                    "ALTER TABLE auths ADD COLUMN createdat TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP, " +
+                            "ADD COLUMN lastused TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP",
+                    conn -> !indexExists(conn, "auths", "auths_lastused"),
+                    "CREATE INDEX auths_lastused ON auths (lastused)"),
+            sql(6, "create game_id_blocks, a sequence of blocks of game ids for ShardedGameDAO",
+                    """
+                    CREATE TABLE game_id_blocks (
+                    `block` int NOT NULL AUTO_INCREMENT,
+                    `reservedat` TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+                    PRIMARY KEY (`block`)
+                    )
+                    """)
+    );
+
+    private interface Check {
+        boolean test(Connection conn) throws SQLException;
+    }
+
+    private static Migration sql(int version, String description, String... statements) {
+        return new Migration(version, description, String.join("\n", statements), conn -> {
+            for (String statement : statements) {
+                execute(conn, statement);
+            }
+        });
+    }
+
+    // two statements, each only run if its check says it's still needed; the checksum is the same as sql(...)
+    private static Migration guardedSql(int version, String description, Check firstNeeded, String first,
+                                        Check secondNeeded, String second) {
+        return new Migration(version, description, first + "\n" + second, conn -> {
+            if (firstNeeded.test(conn)) {execute(conn, first);}
+            if (secondNeeded.test(conn)) {execute(conn, second);}
+        });
+    }
+
+    /**
+     * @param revision bump this whenever the step's code changes, it's part of the checksum
+     */
+    private static Migration code(int version, int revision, String description, Step step) {
+        return new Migration(version, description, description + "\nrevision " + revision, step);
+    }
+
+    private static void execute(Connection conn, String statement) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement(statement)) {
+            ps.executeUpdate();
+        }
+    }
+
+    /**
+     * Migrates the main database, then every game shard. Shards get the whole schema too, they just leave
+     * everything but games empty.
+     */
+    public void migrate() throws DataAccessException {
+        migrate(ConnectionSource.MAIN);
+        for (ConnectionSource shard : DatabaseManager.getShards().values()) {
+            migrate(shard);
+        }
+    }
+
+    private void migrate(ConnectionSource db) throws DataAccessException {
+        try (Connection conn = db.getConnection()) {
+            // keeps two servers starting at once from running the same migration twice
+            try (PreparedStatement ps = conn.prepareStatement("SELECT GET_LOCK(?, ?)")) {
+                ps.setString(1, LOCK_NAME);
+                ps.setInt(2, LOCK_TIMEOUT_SECONDS);
+                ResultSet rs = ps.executeQuery();
+                if (!rs.next() || rs.getInt(1) != 1) {
+                    throw new DataAccessException("Error: timed out waiting for another server to migrate the database");
+                }
+            }
+            try {
+                runPendingMigrations(conn);
+            }
+            finally {
+                try (PreparedStatement ps = conn.prepareStatement("SELECT RELEASE_LOCK(?)")) {
+                    ps.setString(1, LOCK_NAME);
+                    ps.executeQuery();
+                }
+            }
+        } catch (SQLException ex) {
+            throw new DataAccessException("Error: Unable to configure database.", ex);
+        }
+    }
+
+    private void runPendingMigrations(Connection conn) throws SQLException, DataAccessException {
+        var createStatement = """
+                CREATE TABLE IF NOT EXISTS schema_version (
+                `version` int NOT NULL,
+                `description` varchar(200) NOT NULL,
+                `checksum` varchar(8) NOT NULL,
+                `appliedat` TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+                PRIMARY KEY (`version`)
+                )
+                """;
+        try (PreparedStatement ps = conn.prepareStatement(createStatement)) {
+            ps.executeUpdate();
+        }
+
+        Map<Integer, String> applied = new HashMap<>();
+        try (PreparedStatement ps = conn.prepareStatement("SELECT version, checksum FROM schema_version")) {
+            ResultSet rs = ps.executeQuery();
+            while (rs.next()) {
+                applied.put(rs.getInt("version"), rs.getString("checksum"));
+            }
+        }
+
+        for (Migration migration : MIGRATIONS) {
+            String checksum = checksum(migration.checksumSource());
+            if (applied.containsKey(migration.version())) {
+                if (!applied.get(migration.version()).equals(checksum)) {
+                    throw new DataAccessException("Error: migration " + migration.version() +
+                            " was changed after it was applied to the database");
+                }
+                continue;
+            }
+
+            migration.step().apply(conn);
+            var insertStatement = "INSERT INTO schema_version (version, description, checksum) VALUES (?, ?, ?)";
+            try (PreparedStatement ps = conn.prepareStatement(insertStatement)) {
+                ps.setInt(1, migration.version());
+                ps.setString(2, migration.description());
+                ps.setString(3, checksum);
+                ps.executeUpdate();
+            }
+            System.out.println("Applied database migration " + migration.version() + ": " + migration.description());
+        }
+    }
+
+    private static String checksum(String source) {
+        CRC32 crc = new CRC32();
+        crc.update(source.getBytes(StandardCharsets.UTF_8));
+        return String.format("%08x", crc.getValue());
+    }
+
+    private static boolean columnExists(Connection conn, String table, String column) throws SQLException {
+        var statement = "SELECT COUNT(*) FROM information_schema.COLUMNS " +
+                "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ? AND COLUMN_NAME = ?";
+        try (PreparedStatement ps = conn.prepareStatement(statement)) {
+            ps.setString(1, table);
+            ps.setString(2, column);
+            ResultSet rs = ps.executeQuery();
+            return rs.next() && rs.getInt(1) > 0;
+        }
+    }
+
+    private static boolean indexExists(Connection conn, String table, String index) throws SQLException {
+        var statement = "SELECT COUNT(*) FROM information_schema.STATISTICS " +
+                "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ? AND INDEX_NAME = ?";
+        try (PreparedStatement ps = conn.prepareStatement(statement)) {
+            ps.setString(1, table);
+            ps.setString(2, index);
+            ResultSet rs = ps.executeQuery();
+            return rs.next() && rs.getInt(1) > 0;
+        }
+    }
+
+    private static void createIndexIfMissing(Connection conn, String table, String index, String columns) throws SQLException {
+        if (indexExists(conn, table, index)) {return;}
+        // table, index, and column names all come from the migration list, never from users
+        try (PreparedStatement ps = conn.prepareStatement("CREATE INDEX " + index + " ON " + table + " (" + columns + ")")) {
+            ps.executeUpdate();
+        }
+    }
+
+    private static void convertJsonGames(Connection conn) throws SQLException {
+        var columnTypeStatement = "SELECT DATA_TYPE FROM information_schema.COLUMNS " +
+                "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'games' AND COLUMN_NAME = 'chessgame'";
+        try (PreparedStatement ps = conn.prepareStatement(columnTypeStatement)) {
+            ResultSet rs = ps.executeQuery();
+            if (rs.next() && rs.getString(1).equalsIgnoreCase("text")) {
+                try (PreparedStatement alter = conn.prepareStatement("ALTER TABLE games MODIFY chessgame BLOB")) {
+                    alter.executeUpdate();
+                }
+            }
+        }
+
+        Gson gson = new Gson();
+        var selectStatement = "SELECT gameid, chessgame FROM games WHERE chessgame LIKE '{%'";
+        var updateStatement = "UPDATE games SET chessgame = ? WHERE gameid = ?";
+        try (PreparedStatement select = conn.prepareStatement(selectStatement);
+             PreparedStatement update = conn.prepareStatement(updateStatement)) {
+            ResultSet rs = select.executeQuery();
+            while (rs.next()) {
+                String json = new String(rs.getBytes("chessgame"), StandardCharsets.UTF_8);
+                update.setBytes(1, ChessGameCodec.encode(gson.fromJson(json, ChessGame.class)));
+                update.setInt(2, rs.getInt("gameid"));
+                update.addBatch();
+            }
+            update.executeBatch();
+        }
+    }
+
+    private static void addFinishedColumn(Connection conn) throws SQLException {
+        if (!columnExists(conn, "games", "isfinished")) {
+            try (PreparedStatement alter = conn.prepareStatement(
+                    "ALTER TABLE games ADD COLUMN isfinished BOOLEAN NOT NULL DEFAULT FALSE")) {
+                alter.executeUpdate();
+            }
+        }
+        createIndexIfMissing(conn, "games", "games_finished", "isfinished, gameid");
+
+        var selectStatement = "SELECT gameid, chessgame FROM games WHERE isfinished = FALSE";
+        var updateStatement = "UPDATE games SET isfinished = TRUE WHERE gameid = ?";
+        try (PreparedStatement select = conn.prepareStatement(selectStatement);
+             PreparedStatement update = conn.prepareStatement(updateStatement)) {
+            ResultSet rs = select.executeQuery();
+            while (rs.next()) {
+                byte[] chessGame = rs.getBytes("chessgame");
+                if (chessGame != null && ChessGameCodec.decode(chessGame).getIsFinished()) {
+                    update.setInt(1, rs.getInt("gameid"));
+                    update.addBatch();
+                }
+            }
+            update.executeBatch();
+        }
+    }
+}
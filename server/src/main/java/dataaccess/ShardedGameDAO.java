@@ -0,0 +1,215 @@
+package dataaccess;
+
+import chess.ChessGame;
+import model.GameData;
+import model.GameListQuery;
+import model.JoinData;
+import model.JsonFriendlyGameData;
+import server.ResponseException;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static java.sql.Statement.RETURN_GENERATED_KEYS;
+
+/**
+ * Spreads games over several databases, the ones listed in db.shards.
+ * <p>
+ * Each game id maps to a shard through a consistent hash ring, with every shard at many points on the ring so the
+ * games split evenly. Adding a shard later only moves the games that land on its new arcs, but they aren't moved
+ * by this class, that has to happen before the new shard starts taking traffic.
+ * <p>
+ * Ids can't come from each shard's AUTO_INCREMENT since they'd collide, so they're reserved from game_id_blocks in
+ * the main database a block at a time. Listing games asks every shard at once and merges the answers by id.
+ */
+public class ShardedGameDAO implements GameDAO {
+
+    static final int POINTS_PER_SHARD = 128;
+    static final int ID_BLOCK_SIZE = 100;
+
+    private final TreeMap<Long, SQLGameDAO> ring = new TreeMap<>();
+    private final List<SQLGameDAO> shards = new ArrayList<>();
+    private final ConnectionSource idSource;
+    private final ReentrantLock idLock = new ReentrantLock();
+    // the next id to hand out, and the end of the block it's from (exclusive)
+    private int nextID = 0;
+    private int blockEnd = 0;
+
+    public ShardedGameDAO() {this(DatabaseManager.getShards(), ConnectionSource.MAIN);}
+
+    /**
+     * @param shardSources each shard's connections by name, the name decides where it goes on the ring
+     * @param idSource the database with game_id_blocks
+     */
+    ShardedGameDAO(Map<String, ConnectionSource> shardSources, ConnectionSource idSource) {
+        if (shardSources.isEmpty()) {throw new IllegalArgumentException("No game shards, set db.shards");}
+        this.idSource = idSource;
+        for (Map.Entry<String, ConnectionSource> shard : shardSources.entrySet()) {
+            SQLGameDAO shardDAO = new SQLGameDAO(shard.getValue());
+            shards.add(shardDAO);
+            for (int point = 0; point < POINTS_PER_SHARD; point++) {
+                ring.put(hash(shard.getKey() + "#" + point), shardDAO);
+            }
+        }
+    }
+
+    SQLGameDAO shardFor(int gameID) {
+        Map.Entry<Long, SQLGameDAO> entry = ring.ceilingEntry(mix(gameID));
+        return (entry != null) ? entry.getValue() : ring.firstEntry().getValue();
+    }
+
+    public int createGame(GameData gameData) throws ResponseException {
+        int gameID = allocateID();
+        shardFor(gameID).createGame(gameID, gameData);
+        return gameID;
+    }
+
+    public GameData getGame(int gameID) throws DataAccessException, ResponseException {
+        return shardFor(gameID).getGame(gameID);
+    }
+
+    public GameData viewGame(int gameID) throws DataAccessException, ResponseException {
+        return shardFor(gameID).viewGame(gameID);
+    }
+
+    public Collection<GameData> listGames() throws ResponseException {
+        List<GameData> games = new ArrayList<>();
+        for (Collection<GameData> shardGames : onEveryShard(SQLGameDAO::listGames)) {
+            games.addAll(shardGames);
+        }
+        games.sort(Comparator.comparingInt(GameData::gameID));
+        return games;
+    }
+
+    public Collection<JsonFriendlyGameData> listGameSummaries(GameListQuery query) throws ResponseException {
+        // each shard returns at most a page, so the merged list is at most a page per shard before it's cut down
+        List<JsonFriendlyGameData> summaries = new ArrayList<>();
+        for (Collection<JsonFriendlyGameData> shardSummaries : onEveryShard(shard -> shard.listGameSummaries(query))) {
+            summaries.addAll(shardSummaries);
+        }
+        summaries.sort(Comparator.comparingInt(JsonFriendlyGameData::gameID));
+        if (query.limit() > 0 && summaries.size() > query.limit()) {
+            return new ArrayList<>(summaries.subList(0, query.limit()));
+        }
+        return summaries;
+    }
+
+    public void updateWhiteUsername(JoinData joinData, String username) throws DataAccessException, ResponseException {
+        shardFor(joinData.gameID()).updateWhiteUsername(joinData, username);
+    }
+
+    public void updateBlackUsername(JoinData joinData, String username) throws DataAccessException, ResponseException {
+        shardFor(joinData.gameID()).updateBlackUsername(joinData, username);
+    }
+
+    public void updateGame(int gameID, ChessGame game) throws ResponseException {
+        shardFor(gameID).updateGame(gameID, game);
+    }
+
+    public void removeUser(int gameID, String username) throws ResponseException {
+        shardFor(gameID).removeUser(gameID, username);
+    }
+
+    // game_id_blocks isn't reset, so ids handed out before a clear are never reused
+    public void clear() throws ResponseException {
+        onEveryShard(shard -> {
+            shard.clear();
+            return null;
+        });
+    }
+
+    private int allocateID() throws ResponseException {
+        idLock.lock();
+        try {
+            if (nextID >= blockEnd) {
+                int block = reserveBlock();
+                nextID = (block - 1) * ID_BLOCK_SIZE + 1;
+                blockEnd = nextID + ID_BLOCK_SIZE;
+            }
+            return nextID++;
+        } finally {
+            idLock.unlock();
+        }
+    }
+
+    // block n covers ids (n - 1) * ID_BLOCK_SIZE + 1 through n * ID_BLOCK_SIZE
+    private int reserveBlock() throws ResponseException {
+        try (Connection conn = idSource.getConnection()) {
+            try (PreparedStatement ps = conn.prepareStatement("INSERT INTO game_id_blocks () VALUES ()",
+                    RETURN_GENERATED_KEYS)) {
+                ps.executeUpdate();
+                ResultSet rs = ps.getGeneratedKeys();
+                if (rs.next()) {
+                    return rs.getInt(1);
+                }
+            }
+        } catch (SQLException | DataAccessException e) {
+            throw new ResponseException("Error: Unable to update database");
+        }
+        throw new ResponseException("Error: did not return an integer");
+    }
+
+    private interface ShardCall<T> {
+        T apply(SQLGameDAO shard) throws Exception;
+    }
+
+    /**
+     * Runs the call on every shard at the same time.
+     * @return each shard's result, in shard order
+     */
+    private <T> List<T> onEveryShard(ShardCall<T> call) throws ResponseException {
+        List<CompletableFuture<T>> futures = new ArrayList<>();
+        for (SQLGameDAO shard : shards) {
+            futures.add(DaoExecutor.supply(() -> call.apply(shard)));
+        }
+        List<T> results = new ArrayList<>();
+        for (CompletableFuture<T> future : futures) {
+            try {
+                results.add(future.join());
+            } catch (CompletionException ex) {
+                if (ex.getCause() instanceof ResponseException responseException) {throw responseException;}
+                throw new ResponseException("Error: Unable to reach every game shard", ex.getCause());
+            }
+        }
+        return results;
+    }
+
+    // the first 8 bytes of an MD5, which spreads similar names like "host#1" and "host#2" around the ring
+    private static long hash(String name) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(name.getBytes(StandardCharsets.UTF_8));
+            long hash = 0;
+            for (int i = 0; i < 8; i++) {
+                hash = (hash << 8) | (digest[i] & 0xff);
+            }
+            return hash;
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("MD5 should always be available", ex);
+        }
+    }
+
+    // MurmurHash3's finalizer, so consecutive ids land all over the ring instead of on the same arc
+    private static long mix(int gameID) {
+        long hash = gameID;
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -3,6 +3,8 @@ package dataaccess;
 import model.UserData;
 import server.ResponseException;
 
+import java.util.concurrent.CompletableFuture;
+
 public interface UserDAO {
 
     void createUser(UserData userData) throws ResponseException, DataAccessException;
@@ -10,4 +12,16 @@ public interface UserDAO {
     UserData getUser(String username) throws DataAccessException, ResponseException;
 
     void clear() throws ResponseException;
+
+    // the same calls without blocking the caller, see DaoExecutor
+
+    default CompletableFuture<Void> createUserAsync(UserData userData) {
+        return DaoExecutor.run(() -> createUser(userData));
+    }
+
+    default CompletableFuture<UserData> getUserAsync(String username) {
+        return DaoExecutor.supply(() -> getUser(username));
+    }
+
+    default CompletableFuture<Void> clearAsync() {return DaoExecutor.run(this::clear);}
 }
@@ -5,60 +5,79 @@ import dataaccess.DataAccessException;
 import model.AuthData;
 import server.ResponseException;
 import service.AuthService;
+import service.TokenSigner;
 import io.javalin.http.Context;
 
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
 
 public class AuthHandler {
 
     private final AuthService authService;
+    // null unless tokens are signed
+    private final TokenSigner signer;
+    private final String nodeID = UUID.randomUUID().toString();
 
     public AuthHandler(AuthDAO authDAO) {
-        this.authService = new AuthService(authDAO);
+        this.signer = TokenSigner.fromConfig();
+        this.authService = new AuthService(authDAO, signer);
+    }
+
+    /**
+     * Signed tokens are checked without the database, so a logout or clear on one node has to be told to the
+     * others. Does nothing when tokens are stored in the database, every node already sees the same rows.
+     */
+    public void shareRevocations(Backplane backplane) {
+        if (signer == null) {return;}
+        signer.setRevocationListener(new TokenSigner.RevocationListener() {
+            public void revoked(String token) {
+                backplane.publish(new BackplaneEvent(nodeID, BackplaneEvent.Kind.REVOKE, 0, token, null));
+            }
+
+            public void revokedAll(long notBefore) {
+                backplane.publish(new BackplaneEvent(nodeID, BackplaneEvent.Kind.REVOKE_ALL, 0,
+                        Long.toString(notBefore), null));
+            }
+        });
+        backplane.subscribe(event -> {
+            if (nodeID.equals(event.origin()) || event.kind() == null || event.message() == null) {return;}
+            switch (event.kind()) {
+                case REVOKE -> signer.acceptRevocation(event.message());
+                case REVOKE_ALL -> signer.acceptRevokeAll(Long.parseLong(event.message()));
+                default -> {
+                    // ConnectionManager's
+                }
+            }
+        });
     }
 
     public AuthData createAuth(String username, Context ctx) throws ResponseException {
-        AuthData authData = new AuthData(AuthService.generateToken(), username);
         try {
-            authService.createAuth(authData);
+            return authService.createAuth(username);
         }
         catch (ResponseException ex) {
             ctx.status(500);
             throw ex;
         }
-        return authData;
     }
 
     public AuthData getAuth(String authToken) throws DataAccessException, ResponseException {
         return authService.getAuth(authToken);
     }
 
-    public void deleteAuth(String authToken) throws ResponseException {
-        authService.deleteAuth(authToken);
+    public CompletableFuture<Void> deleteAuthAsync(String authToken, Context ctx) {
+        return Futures.statusOnFailure(authService.deleteAuthAsync(authToken), ctx, ex -> 500);
     }
 
-    public void validateAuth(Context ctx) throws DataAccessException, ResponseException {
-        String authToken = ctx.header("authorization");
-        try {
-            getAuth(authToken);
-        }
-        catch (DataAccessException ex) {
-            ctx.status(401);
-            throw ex;
-        }
-        catch (ResponseException ex) {
-            ctx.status(500);
-            throw ex;
-        }
+    // 401 if the token isn't a live session
+    public CompletableFuture<AuthData> validateAuthAsync(Context ctx) {
+        return Futures.statusOnFailure(authService.getAuthAsync(ctx.header("authorization")), ctx,
+                ex -> (ex instanceof DataAccessException) ? 401 : 500);
     }
 
-    public void clear(Context ctx) throws ResponseException {
-        try {
-            authService.clear();
-        }
-        catch (ResponseException ex) {
-            ctx.status(500);
-            throw ex;
-        }
+    public CompletableFuture<Void> clearAsync(Context ctx) {
+        return Futures.statusOnFailure(authService.clearAsync(), ctx, ex -> 500);
     }
 
 }
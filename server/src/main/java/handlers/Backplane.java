@@ -0,0 +1,20 @@
+package handlers;
+
+import java.util.function.Consumer;
+
+/**
+ * Carries game broadcasts between server nodes, so a move made on one node reaches the game's viewers on every
+ * other node too. Each node's ConnectionManager publishes what it broadcasts and delivers what it receives to its
+ * own sessions. AuthHandler shares signed token revocations the same way.
+ * <p>
+ * A backplane may hand a node its own events back, ConnectionManager ignores those by their origin.
+ */
+public interface Backplane extends AutoCloseable {
+
+    void publish(BackplaneEvent event);
+
+    void subscribe(Consumer<BackplaneEvent> listener);
+
+    @Override
+    void close();
+}
@@ -0,0 +1,19 @@
+package handlers;
+
+/**
+ * A broadcast going to every node.
+ * @param origin the node id of the ConnectionManager or AuthHandler that sent it
+ * @param message the serialized message, the LOAD_GAME for a MOVE event, the token for a REVOKE event, or the
+ *                notBefore time for a REVOKE_ALL event
+ * @param moveMade the MOVE_MADE for a MOVE event, null otherwise
+ */
+public record BackplaneEvent(String origin, Kind kind, int gameID, String message, String moveMade) {
+
+    public enum Kind {
+        MESSAGE,
+        MOVE,
+        // a signed token logged out, and every signed token issued up to a time revoked by a clear
+        REVOKE,
+        REVOKE_ALL
+    }
+}
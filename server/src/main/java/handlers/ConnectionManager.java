@@ -1,49 +1,259 @@
 package handlers;
 
-import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArraySet;
 
 import org.eclipse.jetty.websocket.api.Session;
+import websocket.BinaryProtocol;
+import websocket.messages.LoadGame;
+import websocket.messages.MoveMade;
+import websocket.messages.ServerMessage;
 
 public class ConnectionManager {
 
     // an array list could have duplicates... I don't want duplicate sessions, but maybe it's okay?
-    public final ConcurrentHashMap<Integer, CopyOnWriteArraySet<Session>> connections = new ConcurrentHashMap<>();
+    // a concurrent key set rather than a copy-on-write one, which copied every viewer on each join and leave.
+    // broadcasts iterate it live, so a viewer joining or leaving mid-broadcast may or may not get that message
+    public final ConcurrentHashMap<Integer, Set<Session>> connections = new ConcurrentHashMap<>();
+
+    private static final Set<Session> NO_SESSIONS = Set.of();
+    // the other way around from connections, so a session can be found and cleaned up without searching every game
+    private final ConcurrentHashMap<Session, SessionState> sessions = new ConcurrentHashMap<>();
+
+    private static final class SessionState {
+        final Set<Integer> games = ConcurrentHashMap.newKeySet();
+        final SessionOutbox outbox;
+        volatile String username;
+        // gets a MOVE_MADE after each move instead of the whole board
+        volatile boolean moveUpdates = false;
+        // speaks BinaryProtocol instead of JSON
+        volatile boolean binary = false;
+
+        SessionState(Session session) {
+            this.outbox = new SessionOutbox(session);
+        }
+    }
+
+    // tells the other nodes about this node's broadcasts, see Backplane
+    private final Backplane backplane;
+    private final String nodeID = UUID.randomUUID().toString();
+
+    // what each session has been sent so far by the command this thread is handling, see beginBatch
+    private final ThreadLocal<Map<Session, List<Pending>>> batch = new ThreadLocal<>();
+    private final boolean batchMessages;
+
+    private record Pending(WireMessage message, boolean board) {}
+
+    public ConnectionManager() {this(new InProcessBackplane());}
+
+    public ConnectionManager(Backplane backplane) {this(backplane, false);}
+
+    /**
+     * @param batchMessages whether everything one command sends a binary session goes out as a single BATCH frame,
+     *                      see BinaryProtocol. JSON sessions get separate messages either way.
+     */
+    public ConnectionManager(Backplane backplane, boolean batchMessages) {
+        this.backplane = backplane;
+        this.batchMessages = batchMessages;
+        backplane.subscribe(this::receive);
+    }
+
+    /**
+     * Holds on to what this thread sends until endBatch, if batching is on. Every beginBatch needs an endBatch,
+     * in a finally.
+     */
+    public void beginBatch() {
+        if (batchMessages) {batch.set(new LinkedHashMap<>());}
+    }
+
+    public void endBatch() {
+        Map<Session, List<Pending>> pending = batch.get();
+        if (pending == null) {return;}
+        batch.remove();
+        for (Map.Entry<Session, List<Pending>> entry : pending.entrySet()) {
+            List<Pending> messages = entry.getValue();
+            // closed while the command ran
+            SessionState state = sessions.get(entry.getKey());
+            if (state == null) {continue;}
+            if (state.binary && messages.size() > 1) {
+                List<byte[]> frames = new ArrayList<>(messages.size());
+                for (Pending message : messages) {
+                    frames.add(message.message().binary());
+                }
+                // never conflated, a batch holds more than just the board
+                state.outbox.offer(BinaryProtocol.encodeBatch(frames), false);
+            } else {
+                for (Pending message : messages) {
+                    offer(state, message.message(), message.board());
+                }
+            }
+        }
+    }
+
+    public String getNodeID() {
+        return nodeID;
+    }
+
+    /**
+     * Starts keeping track of a session that just connected, so it can be sent errors before it's in any game.
+     * Sessions that aren't tracked, or have been removed, are skipped by every send.
+     */
+    public void open(Session session) {
+        sessions.compute(session, (s, state) -> (state == null && s.isOpen()) ? new SessionState(s) : state);
+    }
 
     public void add(Integer key, Session session) {
-        // check if there's a set there already, create one if not
-        connections.computeIfAbsent(key, k -> new CopyOnWriteArraySet<>());
-        connections.get(key).add(session);
+        // inside the same compute that removeSession's remove waits on, so a session closing at the same time is
+        // either removed from this game too or never added, instead of being left in connections
+        sessions.compute(session, (s, state) -> {
+            if (state == null) {
+                if (!s.isOpen()) {return null;}
+                state = new SessionState(s);
+            }
+            connections.compute(key, (gameID, gameSessions) -> {
+                if (gameSessions == null) {gameSessions = ConcurrentHashMap.newKeySet();}
+                gameSessions.add(s);
+                return gameSessions;
+            });
+            state.games.add(key);
+            return state;
+        });
+    }
+
+    public void add(Integer key, Session session, String username) {
+        add(key, session);
+        SessionState state = sessions.get(session);
+        if (state != null) {state.username = username;}
     }
 
     public void remove(Integer key, Session session) {
-        connections.get(key).remove(session);
+        removeFromGame(key, session);
+        SessionState state = sessions.get(session);
+        if (state != null) {state.games.remove(key);}
+    }
+
+    /**
+     * Drops the session from every game it was in and throws away whatever it still had queued.
+     * @return the username it connected as, or null if it never connected to a game
+     */
+    public String removeSession(Session session) {
+        SessionState state = sessions.remove(session);
+        if (state == null) {return null;}
+        for (Integer gameID : state.games) {
+            removeFromGame(gameID, session);
+        }
+        state.outbox.close();
+        return state.username;
+    }
+
+    // games nobody is watching anymore are removed, so connections only holds live games
+    private void removeFromGame(int gameID, Session session) {
+        connections.computeIfPresent(gameID, (id, gameSessions) -> {
+            gameSessions.remove(session);
+            return gameSessions.isEmpty() ? null : gameSessions;
+        });
     }
 
-    public void broadcast(Session exludedSession, int gameID, String message) throws IOException {
+    /**
+     * Queues the message for every open session in the game except the excluded one, without waiting for any of
+     * them. The message is serialized at most once per format and every session is handed the same copy. Each
+     * session has its own outbox, so a slow connection only delays its own messages. The other nodes get it
+     * through the backplane.
+     */
+    public void broadcast(Session exludedSession, int gameID, ServerMessage message) {
         // A BASIC SERVER MESSAGE HAS NO MESSAGE, THIS WON'T WORK
         // I think the ServerMessage object needs to have a message instance variable
         // and then for that variable to be the exact string I want to send
-//        String msg = message.toString();
-        for (Session c : connections.get(gameID)) {
-            if (c.isOpen()) {
-                // I might need to do null checking here eventually
-                if (!c.equals(exludedSession)) {
-                    c.getRemote().sendString(message);
-                }
+        WireMessage wire = WireMessage.of(message);
+        broadcast(exludedSession, gameID, wire, false);
+        backplane.publish(new BackplaneEvent(nodeID, BackplaneEvent.Kind.MESSAGE, gameID, wire.json(), null));
+    }
+
+    public void useMoveUpdates(Session session) {
+        SessionState state = sessions.get(session);
+        if (state != null) {state.moveUpdates = true;}
+    }
+
+    // the session sent a binary frame, so it gets binary frames back from now on
+    public void useBinary(Session session) {
+        SessionState state = sessions.get(session);
+        if (state != null) {state.binary = true;}
+    }
+
+    /**
+     * Tells everyone in the game about a move, with moveMade for the sessions that asked for move updates and
+     * loadGame for everyone else.
+     */
+    public void broadcastMove(int gameID, LoadGame loadGame, MoveMade moveMade) {
+        WireMessage loadGameWire = WireMessage.of(loadGame);
+        WireMessage moveMadeWire = WireMessage.of(moveMade);
+        deliverMove(gameID, loadGameWire, moveMadeWire);
+        backplane.publish(new BackplaneEvent(nodeID, BackplaneEvent.Kind.MOVE, gameID,
+                loadGameWire.json(), moveMadeWire.json()));
+    }
+
+    // another node's broadcast, for this node's sessions in that game
+    private void receive(BackplaneEvent event) {
+        if (nodeID.equals(event.origin()) || event.kind() == null) {return;}
+        switch (event.kind()) {
+            case MESSAGE -> broadcast(null, event.gameID(), WireMessage.ofJson(event.message()), false);
+            case MOVE -> deliverMove(event.gameID(), WireMessage.ofJson(event.message()),
+                    WireMessage.ofJson(event.moveMade()));
+            case REVOKE, REVOKE_ALL -> {
+                // AuthHandler's
             }
         }
     }
 
-    public void notifySingleSession(Session session, int gameID, String message) throws Exception {
-        add(gameID, session);
-        for (Session c : connections.get(gameID)) {
-            if (c.isOpen()) {
-                if (c.equals(session)) {
-                    c.getRemote().sendString(message);
-                }
+    private void deliverMove(int gameID, WireMessage loadGame, WireMessage moveMade) {
+        for (Session c : connections.getOrDefault(gameID, NO_SESSIONS)) {
+            SessionState state = sessions.get(c);
+            if (state != null && state.moveUpdates) {
+                send(c, moveMade, false);
+            } else {
+                send(c, loadGame, true);
             }
         }
     }
+
+    // gameID isn't used anymore, a direct message doesn't need to know which game the session is in
+    public void notifySingleSession(Session session, int gameID, ServerMessage message) {
+        send(session, WireMessage.of(message), false);
+    }
+
+    public void sendLoadGame(Session session, int gameID, LoadGame message) {
+        send(session, WireMessage.of(message), true);
+    }
+
+    private void broadcast(Session excludedSession, int gameID, WireMessage message, boolean board) {
+        for (Session c : connections.getOrDefault(gameID, NO_SESSIONS)) {
+            if (!c.equals(excludedSession)) {
+                send(c, message, board);
+            }
+        }
+    }
+
+    private void send(Session session, WireMessage message, boolean board) {
+        if (!session.isOpen()) {return;}
+        Map<Session, List<Pending>> pending = batch.get();
+        if (pending != null) {
+            pending.computeIfAbsent(session, s -> new ArrayList<>()).add(new Pending(message, board));
+            return;
+        }
+        SessionState state = sessions.get(session);
+        if (state != null) {offer(state, message, board);}
+    }
+
+    private void offer(SessionState state, WireMessage message, boolean board) {
+        if (state.binary) {
+            state.outbox.offer(message.binary(), board);
+        } else {
+            state.outbox.offer(message.json(), board);
+        }
+    }
 }
@@ -0,0 +1,35 @@
+package handlers;
+
+import io.javalin.http.Context;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.ToIntFunction;
+
+/**
+ * Helpers for handlers that answer through ctx.future instead of blocking the request thread.
+ */
+final class Futures {
+
+    private Futures() {}
+
+    /**
+     * Sets the status the blocking handlers used to set when future fails, unless an earlier step already set one.
+     * The exception is passed on unchanged, so the server's exception handlers still write the message.
+     */
+    static <T> CompletableFuture<T> statusOnFailure(CompletableFuture<T> future, Context ctx,
+                                                   ToIntFunction<Throwable> status) {
+        return future.whenComplete((result, ex) -> {
+            if (ex != null && ctx.status().getCode() < 400) {
+                ctx.status(status.applyAsInt(unwrap(ex)));
+            }
+        });
+    }
+
+    static Throwable unwrap(Throwable ex) {
+        while (ex instanceof CompletionException && ex.getCause() != null) {
+            ex = ex.getCause();
+        }
+        return ex;
+    }
+}
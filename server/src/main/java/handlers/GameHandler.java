@@ -1,25 +1,24 @@
 package handlers;
 
 import com.google.gson.Gson;
+import dataaccess.AlreadyTakenException;
 import dataaccess.DataAccessException;
 import dataaccess.GameDAO;
-import model.AuthData;
 import model.GameData;
+import model.GameListQuery;
 import model.JoinData;
-import model.JsonFriendlyGameData;
-import server.ResponseException;
 import service.GameService;
 import io.javalin.http.Context;
 
-import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 public class GameHandler {
 
     private final GameService gameService;
     private final AuthHandler authHandler;
     private final Gson gson = new Gson();
+    private static final int MAX_PAGE_SIZE = 100;
 
     public GameHandler(GameDAO gameDAO, AuthHandler authHandler) {
         this.gameService = new GameService(gameDAO);
@@ -30,95 +29,84 @@ public class GameHandler {
         return this.gameService;
     }
 
-    public void handleCreate(Context ctx) throws DataAccessException, ResponseException {
-        authHandler.validateAuth(ctx);
-
-        GameData gameData = gson.fromJson(ctx.body(), GameData.class); // create a GameData (most will be null)
-        if (gameData.gameName()==null || gameData.gameName().isEmpty()) { // if they didn't provide a name, throw a 400 error
-            ctx.status(400);
-            throw new DataAccessException("Error: bad request");
-        }
-        int gameID;
-        try {
-            gameID = gameService.createGame(gameData);
-        }
-        catch (ResponseException ex) {
-            ctx.status(500);
-            throw ex;
-        }
-        ctx.result(gson.toJson(Map.of("gameID", gameID)));
+    public void handleCreate(Context ctx) {
+        ctx.future(() -> authHandler.validateAuthAsync(ctx).thenCompose(authData -> {
+            GameData gameData = gson.fromJson(ctx.body(), GameData.class); // create a GameData (most will be null)
+            if (gameData.gameName()==null || gameData.gameName().isEmpty()) { // if they didn't provide a name, 400
+                ctx.status(400);
+                return CompletableFuture.failedFuture(new DataAccessException("Error: bad request"));
+            }
+            return Futures.statusOnFailure(gameService.createGameAsync(gameData), ctx,
+                    ex -> (ex instanceof DataAccessException) ? 400 : 500);
+        }).thenAccept(gameID -> ctx.result(gson.toJson(Map.of("gameID", gameID)))));
     }
 
-    public void listGames(Context ctx) throws DataAccessException, ResponseException {
-        authHandler.validateAuth(ctx);
-        Collection<GameData> oldGameList;
-        try {
-            oldGameList = gameService.listGames();
-        }
-        catch (ResponseException ex) {
-            ctx.status(500);
-            throw ex;
-        }
-        ArrayList<JsonFriendlyGameData> gameList = new ArrayList<>();
-        for (GameData game : oldGameList) {
-            gameList.add(new JsonFriendlyGameData(
-                    game.gameID(),
-                    game.whiteUsername(),
-                    game.blackUsername(),
-                    game.gameName())
-            );
-        }
-        ctx.result(gson.toJson(Map.of("games", gameList)));
+    public void listGames(Context ctx) {
+        ctx.future(() -> authHandler.validateAuthAsync(ctx).thenCompose(authData -> {
+            GameListQuery query;
+            try {
+                query = parseListQuery(ctx);
+            }
+            catch (DataAccessException ex) {
+                return CompletableFuture.failedFuture(ex);
+            }
+            return Futures.statusOnFailure(gameService.listGameSummariesAsync(query), ctx, ex -> 500);
+        }).thenAccept(gameList -> ctx.result(gson.toJson(Map.of("games", gameList)))));
     }
 
-    public void handleJoin(Context ctx) throws DataAccessException, ResponseException {
-        String authToken = ctx.header("authorization");
-        authHandler.validateAuth(ctx);
-        JoinData joinData = gson.fromJson(ctx.body(), JoinData.class);
-        GameData gameData;
+    // reads ?after=&limit=&player=&open=&finished= from the request, none of them are required
+    private GameListQuery parseListQuery(Context ctx) throws DataAccessException {
+        int after;
+        int limit;
         try {
-            gameData = gameService.getGame(joinData.gameID());
+            after = (ctx.queryParam("after") == null) ? 0 : Integer.parseInt(ctx.queryParam("after"));
+            limit = (ctx.queryParam("limit") == null) ? 0 : Integer.parseInt(ctx.queryParam("limit"));
         }
-        catch (DataAccessException ex) {
+        catch (NumberFormatException ex) {
             ctx.status(400);
-            throw ex;
-        }
-        catch (ResponseException ex) {
-            ctx.status(500);
-            throw ex;
+            throw new DataAccessException("Error: bad request");
         }
-        if (joinData.playerColor()==null ||
-                (!joinData.playerColor().equals("WHITE") && !joinData.playerColor().equals("BLACK"))) {
+        if (after < 0 || limit < 0 || (ctx.queryParam("limit") != null && limit == 0)) {
             ctx.status(400);
             throw new DataAccessException("Error: bad request");
         }
+        limit = Math.min(limit, MAX_PAGE_SIZE);
 
-        AuthData authData = authHandler.getAuth(authToken);
-        String username = authData.username();
-
-        if ((gameData.whiteUsername()!=null && joinData.playerColor().equals("WHITE")) ||
-                gameData.blackUsername()!=null && joinData.playerColor().equals("BLACK")) {
-            ctx.status(403);
-            throw new DataAccessException("Error: already taken");
-        }
+        Boolean open = parseFlag(ctx, "open");
+        Boolean finished = parseFlag(ctx, "finished");
+        return new GameListQuery(after, limit, ctx.queryParam("player"), Boolean.TRUE.equals(open), finished);
+    }
 
-        try {
-            gameService.updateGame(joinData, username);
+    // null when the flag isn't given, anything other than true or false is a bad request
+    private static Boolean parseFlag(Context ctx, String name) throws DataAccessException {
+        String value = ctx.queryParam(name);
+        if (value == null) {
+            return null;
         }
-        catch (ResponseException ex) {
-            ctx.status(500);
-            throw ex;
+        if (!value.equals("true") && !value.equals("false")) {
+            ctx.status(400);
+            throw new DataAccessException("Error: bad request");
         }
+        return value.equals("true");
+    }
+
+    public void handleJoin(Context ctx) {
+        ctx.future(() -> authHandler.validateAuthAsync(ctx).thenCompose(authData -> {
+            JoinData joinData = gson.fromJson(ctx.body(), JoinData.class);
+            if (joinData.playerColor()==null ||
+                    (!joinData.playerColor().equals("WHITE") && !joinData.playerColor().equals("BLACK"))) {
+                ctx.status(400);
+                return CompletableFuture.failedFuture(new DataAccessException("Error: bad request"));
+            }
 
+            // the DAO claims the seat only if it's empty, and tells us which way it failed otherwise
+            return Futures.statusOnFailure(gameService.updateGameAsync(joinData, authData.username()), ctx, ex ->
+                    (ex instanceof AlreadyTakenException) ? 403 : (ex instanceof DataAccessException) ? 400 : 500);
+        }));
     }
-    public void clear(Context ctx) throws ResponseException {
-        try {
-            gameService.clear();
-        }
-        catch (ResponseException ex) {
-            ctx.status(500);
-            throw ex;
-        }
+
+    public CompletableFuture<Void> clearAsync(Context ctx) {
+        return Futures.statusOnFailure(gameService.clearAsync(), ctx, ex -> 500);
     }
 
 }
@@ -0,0 +1,101 @@
+package handlers;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Runs WebSocket commands one at a time per game, and different games at the same time.
+ * <p>
+ * Each game id maps to one of a fixed number of lanes, and a lane runs its commands in the order they came in, on a
+ * virtual thread that only exists while the lane has work. Two moves in the same game can't interleave, and a slow
+ * game only holds up the games that share its lane. Nothing is locked across lanes.
+ * <p>
+ * A lane deeper than WARN_DEPTH gets a line in the log.
+ */
+class GameLanes {
+
+    static final int WARN_DEPTH = 100;
+
+    private final Lane[] lanes;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    GameLanes(int laneCount) {
+        if (laneCount < 1) {throw new IllegalArgumentException("Need at least one lane, not " + laneCount);}
+        lanes = new Lane[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            lanes[i] = new Lane(i);
+        }
+    }
+
+    // commands without a game id all share lane 0, they fail right away anyway
+    void execute(Integer gameID, Runnable command) {
+        int lane = (gameID == null) ? 0 : Math.floorMod(gameID, lanes.length);
+        lanes[lane].submit(command);
+    }
+
+    void shutdown() {
+        executor.shutdown();
+    }
+
+    private final class Lane {
+        private final int index;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final ArrayDeque<Runnable> queue = new ArrayDeque<>();
+        // queued plus the one running, for the warning
+        private final AtomicInteger depth = new AtomicInteger();
+        // whether a thread is draining this lane
+        private boolean running = false;
+        private volatile boolean warned = false;
+
+        Lane(int index) {
+            this.index = index;
+        }
+
+        void submit(Runnable command) {
+            boolean start;
+            int queued;
+            lock.lock();
+            try {
+                // counted before it's queued, so a drain that picks it up straight away can't take depth below 0
+                queued = depth.incrementAndGet();
+                queue.addLast(command);
+                start = !running;
+                running = true;
+            } finally {
+                lock.unlock();
+            }
+            if (queued > WARN_DEPTH && !warned) {
+                warned = true;
+                System.out.println("WebSocket lane " + index + " has " + queued + " commands waiting");
+            }
+            if (start) {executor.execute(this::drain);}
+        }
+
+        private void drain() {
+            while (true) {
+                Runnable next;
+                lock.lock();
+                try {
+                    next = queue.pollFirst();
+                    if (next == null) {
+                        running = false;
+                        return;
+                    }
+                } finally {
+                    lock.unlock();
+                }
+                try {
+                    next.run();
+                } catch (Throwable ex) {
+                    // an Error too, otherwise running would stay true and nothing would drain this lane again
+                    System.out.println("A WebSocket command failed: " + ex);
+                } finally {
+                    if (depth.decrementAndGet() <= WARN_DEPTH / 2) {warned = false;}
+                }
+            }
+        }
+    }
+}
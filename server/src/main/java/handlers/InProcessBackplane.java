@@ -0,0 +1,29 @@
+package handlers;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Hands every event straight to every subscriber in this JVM. With one ConnectionManager, which is the default,
+ * there's nobody else to tell. Several can share one to act like separate nodes.
+ */
+public class InProcessBackplane implements Backplane {
+
+    // subscribing is rare and publishing is constant, so copy-on-write fits here
+    private final List<Consumer<BackplaneEvent>> listeners = new CopyOnWriteArrayList<>();
+
+    public void publish(BackplaneEvent event) {
+        for (Consumer<BackplaneEvent> listener : listeners) {
+            listener.accept(event);
+        }
+    }
+
+    public void subscribe(Consumer<BackplaneEvent> listener) {
+        listeners.add(listener);
+    }
+
+    public void close() {
+        listeners.clear();
+    }
+}
@@ -0,0 +1,152 @@
+package handlers;
+
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.StatusCode;
+import org.eclipse.jetty.websocket.api.WriteCallback;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * One session's messages waiting to go out, sent one at a time so a client that can't keep up makes this queue
+ * grow instead of Jetty's, where nothing could be done about it.
+ * <p>
+ * A newer LOAD_GAME makes any queued one pointless, so only the latest board waits in the queue. A session that
+ * stays over HIGH_WATER_MARK for GRACE_MILLIS, or ever gets to MAX_QUEUED, is disconnected. Its client can
+ * reconnect and get the current board.
+ */
+class SessionOutbox {
+
+    static final int HIGH_WATER_MARK = 64;
+    static final int MAX_QUEUED = 256;
+    static final long GRACE_MILLIS = 5_000;
+
+    // text or binary, whichever the session speaks, see BinaryProtocol
+    private record Outgoing(String text, byte[] binary, boolean board) {}
+
+    private final Session session;
+    private final LongSupplier clock;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ArrayDeque<Outgoing> queue = new ArrayDeque<>();
+    // whether a send is in flight, its callback sends the next one
+    private boolean sending = false;
+    private boolean closed = false;
+    // when the queue went over the high-water mark, 0 while it's under
+    private long overSince = 0;
+
+    SessionOutbox(Session session) {this(session, System::currentTimeMillis);}
+
+    SessionOutbox(Session session, LongSupplier clock) {
+        this.session = session;
+        this.clock = clock;
+    }
+
+    /**
+     * @param board whether this is a LOAD_GAME, which replaces any LOAD_GAME still waiting
+     */
+    void offer(String message, boolean board) {
+        offer(new Outgoing(message, null, board));
+    }
+
+    void offer(byte[] message, boolean board) {
+        offer(new Outgoing(null, message, board));
+    }
+
+    private void offer(Outgoing outgoing) {
+        Outgoing next;
+        boolean evict = false;
+        lock.lock();
+        try {
+            if (closed) {return;}
+            if (outgoing.board()) {queue.removeIf(Outgoing::board);}
+            queue.addLast(outgoing);
+            if (tooFarBehind()) {
+                evict = true;
+                closed = true;
+                queue.clear();
+                next = null;
+            } else if (sending) {
+                return;
+            } else {
+                next = queue.pollFirst();
+                sending = true;
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (evict) {
+            System.out.println("Disconnecting a WebSocket that fell too far behind");
+            session.close(StatusCode.POLICY_VIOLATION, "Error: too far behind, reconnect to get the current game");
+            return;
+        }
+        send(next);
+    }
+
+    void close() {
+        lock.lock();
+        try {
+            closed = true;
+            queue.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean tooFarBehind() {
+        int size = queue.size();
+        if (size >= MAX_QUEUED) {return true;}
+        if (size <= HIGH_WATER_MARK) {
+            overSince = 0;
+            return false;
+        }
+        long now = clock.getAsLong();
+        if (overSince == 0) {overSince = now;}
+        return now - overSince >= GRACE_MILLIS;
+    }
+
+    private void send(Outgoing outgoing) {
+        WriteCallback callback = new WriteCallback() {
+            @Override
+            public void writeSuccess() {
+                sendNext();
+            }
+
+            @Override
+            public void writeFailed(Throwable ex) {
+                // usually the connection dropped, onClose cleans up the rest
+                System.out.println("Failed to send a WebSocket message: " + ex.getMessage());
+                close();
+            }
+        };
+        try {
+            if (outgoing.text() != null) {
+                session.getRemote().sendString(outgoing.text(), callback);
+            } else {
+                // wrapped per send, since sending moves the buffer's position and the bytes are shared
+                session.getRemote().sendBytes(ByteBuffer.wrap(outgoing.binary()), callback);
+            }
+        } catch (RuntimeException ex) {
+            // e.g. the session already closed, the callback won't run so nothing else would send the next one
+            callback.writeFailed(ex);
+        }
+    }
+
+    private void sendNext() {
+        Outgoing next;
+        lock.lock();
+        try {
+            next = closed ? null : queue.pollFirst();
+            if (next == null) {
+                sending = false;
+                return;
+            }
+            if (queue.size() <= HIGH_WATER_MARK) {overSince = 0;}
+        } finally {
+            lock.unlock();
+        }
+        send(next);
+    }
+}
@@ -0,0 +1,282 @@
+package handlers;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Sends events to the other nodes over plain TCP, one JSON line per event. Each node listens on its own port and
+ * connects out to every peer in the list. The list can be the same on every node, including the node itself,
+ * since a node ignores its own events anyway.
+ * <p>
+ * Nodes share a secret. When a peer connects, the listening node sends a random challenge line, and the peer has
+ * to answer with the HMAC-SHA256 of it under the secret before anything it sends is read. That keeps out anyone
+ * without the secret, but the events themselves aren't encrypted or signed, so the backplane should stay on a
+ * private network. It only listens on loopback unless given another address.
+ * <p>
+ * Nothing is persisted or retried. A peer that's down or can't keep up misses those events, and its clients
+ * catch up on their next LOAD_GAME or RESYNC.
+ */
+public class TcpBackplane implements Backplane {
+
+    static final int MAX_QUEUED = 1_024;
+    static final long RECONNECT_MILLIS = 1_000;
+    static final int CONNECT_TIMEOUT_MILLIS = 2_000;
+    static final int MIN_SECRET_BYTES = 16;
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final Gson gson = new Gson();
+    private final ServerSocket serverSocket;
+    private final List<Peer> peers = new ArrayList<>();
+    private final List<Consumer<BackplaneEvent>> listeners = new CopyOnWriteArrayList<>();
+    private final Set<Socket> incoming = ConcurrentHashMap.newKeySet();
+    private final SecretKeySpec secret;
+    private volatile boolean closed = false;
+
+    /**
+     * @param bindAddress the address to listen on, null for loopback only
+     * @param port where to listen for the other nodes, 0 for any free port
+     * @param peers comma separated host:port pairs of every node to send to
+     * @param secret shared by every node, at least MIN_SECRET_BYTES long
+     */
+    public TcpBackplane(String bindAddress, int port, String peers, byte[] secret) throws IOException {
+        if (secret == null || secret.length < MIN_SECRET_BYTES) {
+            throw new IllegalArgumentException("The backplane secret must be at least " + MIN_SECRET_BYTES + " bytes");
+        }
+        this.secret = new SecretKeySpec(secret, ALGORITHM);
+        InetAddress bind = (bindAddress == null) ? InetAddress.getLoopbackAddress() : InetAddress.getByName(bindAddress);
+        serverSocket = new ServerSocket(port, 50, bind);
+        if (peers != null) {
+            for (String endpoint : peers.split(",")) {
+                if (endpoint.isBlank()) {continue;}
+                String[] hostPort = endpoint.trim().split(":");
+                if (hostPort.length != 2) {
+                    throw new IllegalArgumentException("Backplane peers should be host:port, not " + endpoint);
+                }
+                this.peers.add(new Peer(hostPort[0], Integer.parseInt(hostPort[1])));
+            }
+        }
+        Thread.ofVirtual().name("backplane-accept").start(this::acceptLoop);
+        for (Peer peer : this.peers) {
+            Thread.ofVirtual().name("backplane-" + peer.address).start(peer::sendLoop);
+        }
+    }
+
+    public int port() {
+        return serverSocket.getLocalPort();
+    }
+
+    public void publish(BackplaneEvent event) {
+        if (peers.isEmpty()) {return;}
+        String line = gson.toJson(event);
+        for (Peer peer : peers) {
+            peer.offer(line);
+        }
+    }
+
+    public void subscribe(Consumer<BackplaneEvent> listener) {
+        listeners.add(listener);
+    }
+
+    public void close() {
+        closed = true;
+        try {
+            serverSocket.close();
+        } catch (IOException ignored) {
+            // nothing left to do with it
+        }
+        for (Socket socket : incoming) {
+            closeQuietly(socket);
+        }
+        for (Peer peer : peers) {
+            peer.close();
+        }
+    }
+
+    private void acceptLoop() {
+        while (!closed) {
+            try {
+                Socket socket = serverSocket.accept();
+                incoming.add(socket);
+                Thread.ofVirtual().name("backplane-read").start(() -> readLoop(socket));
+            } catch (IOException ex) {
+                if (!closed) {System.out.println("Backplane stopped accepting peers: " + ex.getMessage());}
+                return;
+            }
+        }
+    }
+
+    private void readLoop(Socket socket) {
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8))) {
+            if (!challenge(socket, reader)) {
+                System.out.println("Backplane peer " + socket.getRemoteSocketAddress() + " failed the handshake");
+                return;
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                deliver(line);
+            }
+        } catch (IOException ex) {
+            // the peer went away, it reconnects on its own when it's back
+        } finally {
+            incoming.remove(socket);
+            closeQuietly(socket);
+        }
+    }
+
+    // sends a random challenge and checks the answer, giving the peer CONNECT_TIMEOUT_MILLIS to reply
+    private boolean challenge(Socket socket, BufferedReader reader) throws IOException {
+        byte[] nonce = new byte[16];
+        RANDOM.nextBytes(nonce);
+        String challenge = HexFormat.of().formatHex(nonce);
+        Writer writer = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+        writer.write(challenge + "\n");
+        writer.flush();
+        socket.setSoTimeout(CONNECT_TIMEOUT_MILLIS);
+        String answer = reader.readLine();
+        socket.setSoTimeout(0);
+        return answer != null && MessageDigest.isEqual(
+                answer.getBytes(StandardCharsets.UTF_8), answer(challenge).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private String answer(String challenge) {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(secret);
+            return HexFormat.of().formatHex(mac.doFinal(challenge.getBytes(StandardCharsets.UTF_8)));
+        } catch (GeneralSecurityException ex) {
+            throw new IllegalStateException("HMAC-SHA256 isn't available", ex);
+        }
+    }
+
+    private void deliver(String line) {
+        BackplaneEvent event;
+        try {
+            event = gson.fromJson(line, BackplaneEvent.class);
+        } catch (JsonParseException ex) {
+            System.out.println("Ignoring a backplane event that isn't valid: " + ex.getMessage());
+            return;
+        }
+        if (event == null) {return;}
+        for (Consumer<BackplaneEvent> listener : listeners) {
+            try {
+                listener.accept(event);
+            } catch (RuntimeException ex) {
+                System.out.println("Failed to deliver a backplane event: " + ex.getMessage());
+            }
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+            // already closed
+        }
+    }
+
+    // one other node, with a queue so publishing never waits on the network
+    private final class Peer {
+        private final InetSocketAddress address;
+        private final LinkedBlockingQueue<String> queue = new LinkedBlockingQueue<>(MAX_QUEUED);
+        private volatile Socket socket;
+        private volatile Thread sender;
+        private boolean warnedFull = false;
+
+        Peer(String host, int port) {
+            this.address = InetSocketAddress.createUnresolved(host, port);
+        }
+
+        void offer(String line) {
+            if (queue.offer(line)) {
+                warnedFull = false;
+            } else if (!warnedFull) {
+                warnedFull = true;
+                System.out.println("Backplane peer " + address + " is behind, dropping events for it");
+            }
+        }
+
+        void sendLoop() {
+            sender = Thread.currentThread();
+            while (!closed) {
+                try (Socket connected = new Socket()) {
+                    connected.connect(new InetSocketAddress(address.getHostString(), address.getPort()),
+                            CONNECT_TIMEOUT_MILLIS);
+                    connected.setTcpNoDelay(true);
+                    socket = connected;
+                    // not closed on its own, closing the socket closes it
+                    BufferedReader reader = new BufferedReader(
+                            new InputStreamReader(connected.getInputStream(), StandardCharsets.UTF_8));
+                    connected.setSoTimeout(CONNECT_TIMEOUT_MILLIS);
+                    String challenge = reader.readLine();
+                    if (challenge == null) {throw new IOException("closed before the handshake");}
+                    connected.setSoTimeout(0);
+                    Writer writer = new BufferedWriter(
+                            new OutputStreamWriter(connected.getOutputStream(), StandardCharsets.UTF_8));
+                    writer.write(answer(challenge));
+                    writer.write('\n');
+                    writer.flush();
+                    while (!closed) {
+                        String line = queue.take();
+                        writer.write(line);
+                        writer.write('\n');
+                        // write out everything that piled up while waiting on take, then flush once
+                        while ((line = queue.poll()) != null) {
+                            writer.write(line);
+                            writer.write('\n');
+                        }
+                        writer.flush();
+                    }
+                } catch (IOException ex) {
+                    if (closed) {return;}
+                    pause();
+                } catch (InterruptedException ex) {
+                    return;
+                }
+            }
+        }
+
+        // wait before reconnecting, so a peer that's down isn't hammered
+        private void pause() {
+            try {
+                TimeUnit.MILLISECONDS.sleep(RECONNECT_MILLIS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        void close() {
+            Socket connected = socket;
+            if (connected != null) {closeQuietly(connected);}
+            Thread thread = sender;
+            if (thread != null) {thread.interrupt();}
+        }
+    }
+}
@@ -1,30 +1,38 @@
 package handlers;
 
+import dataaccess.AlreadyTakenException;
 import dataaccess.DataAccessException;
 import dataaccess.UserDAO;
 import model.AuthData;
 import model.UserData;
-import org.mindrot.jbcrypt.BCrypt;
 import server.ResponseException;
 import service.UserService;
+import service.WorkerPool;
 import io.javalin.http.Context;
 import com.google.gson.Gson;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
 
 
 public class UserHandler { // later do "extends Handler"?
 
+    private static final int RETRY_AFTER_SECONDS = 1;
+
     private final UserService userService;
     private final AuthHandler authHandler;
+    private final WorkerPool passwordWorkers;
     private final Gson gson = new Gson();
 
     public UserData fromJsonToUserData(Context ctx) {
         return gson.fromJson(ctx.body(), UserData.class);
     }
 
-    public UserHandler(UserDAO userDAO, AuthHandler authHandler) {
+    public UserHandler(UserDAO userDAO, AuthHandler authHandler, WorkerPool passwordWorkers) {
         this.userService = new UserService(userDAO);
         this.authHandler = authHandler;
+        this.passwordWorkers = passwordWorkers;
     }
 
     public void handleRegister(Context ctx) throws DataAccessException, ResponseException {
@@ -37,24 +45,26 @@ public class UserHandler { // later do "extends Handler"?
             throw ex;
         }
 
-        try {
-            userService.register(userData);
-            AuthData authData = authHandler.createAuth(userData.username(), ctx);
-            ctx.result(gson.toJson(Map.of("username", userData.username(), "authToken", authData.authToken())));
-        }
-        catch (DataAccessException ex) {
-            ctx.status(403); // THIS MIGHT NEED TO BE 403 SOMEHOW
-            throw ex;
-        }
-        catch (ResponseException ex) {
-            ctx.status(500);
-            throw ex;
-        }
-
+        runOnPasswordWorkers(ctx, () -> {
+            try {
+                userService.register(userData);
+                AuthData authData = authHandler.createAuth(userData.username(), ctx);
+                ctx.result(gson.toJson(Map.of("username", userData.username(), "authToken", authData.authToken())));
+            }
+            catch (DataAccessException ex) {
+                // taken usernames are a 403, anything else the DAO won't store (e.g. too long) is a 400
+                ctx.status((ex instanceof AlreadyTakenException) ? 403 : 400);
+                throw ex;
+            }
+            catch (ResponseException ex) {
+                ctx.status(500);
+                throw ex;
+            }
+            return null;
+        });
     }
 
     public void handleLogin(Context ctx) throws DataAccessException, ResponseException {
-        UserData userData;
         UserData initialData = fromJsonToUserData(ctx); // this won't have an email field, so it should be left blank
 
         try {
@@ -64,39 +74,44 @@ public class UserHandler { // later do "extends Handler"?
             ctx.status(400);
             throw ex;
         }
+        runOnPasswordWorkers(ctx, () -> {
+            try {
+                // there could be a duplicate authData here (as in two authData objects with the same username if you don't log out)
+                UserData userData = userService.login(initialData.username(), initialData.password());
+                AuthData authData = authHandler.createAuth(userData.username(), ctx);
+                ctx.result(gson.toJson(Map.of("username", userData.username(), "authToken", authData.authToken())));
+            }
+            catch (DataAccessException ex) {
+                ctx.status(401);
+                throw ex;
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Hands the rest of the request to the password workers, or answers 503 straight away if they're backed up.
+     */
+    private void runOnPasswordWorkers(Context ctx, Callable<Void> task) throws ResponseException {
+        CompletableFuture<Void> future;
         try {
-            // there could be a duplicate authData here (as in two authData objects with the same username if you don't log out)
-            userData = userService.getUser(initialData.username());
-//            if (!initialData.password().equals(userData.password())) {throw new DataAccessException("Error: unauthorised");}
-            if (!(BCrypt.checkpw(initialData.password(), userData.password()))) {throw new DataAccessException("Error: unauthorised");}
-            AuthData authData = authHandler.createAuth(userData.username(), ctx);
-            ctx.result(gson.toJson(Map.of("username", userData.username(), "authToken", authData.authToken())));
+            future = passwordWorkers.submit(task);
         }
-        catch (DataAccessException ex) {
-            ctx.status(401);
-            throw ex;
+        catch (RejectedExecutionException ex) {
+            ctx.status(503);
+            ctx.header("Retry-After", String.valueOf(RETRY_AFTER_SECONDS));
+            throw new ResponseException("Error: the server is busy, try again shortly");
         }
+        ctx.future(() -> future);
     }
 
-    public void handleLogout(Context ctx) throws DataAccessException, ResponseException {
+    public void handleLogout(Context ctx) {
         String authToken = ctx.header("authorization");
-        try {
-            authHandler.validateAuth(ctx);
-            authHandler.deleteAuth(authToken);
-        }
-        catch (ResponseException ex) {
-            ctx.status(500);
-            throw ex;
-        }
+        ctx.future(() -> authHandler.validateAuthAsync(ctx)
+                .thenCompose(authData -> authHandler.deleteAuthAsync(authToken, ctx)));
     }
 
-    public void clear(Context ctx) throws ResponseException {
-        try {
-            userService.clear();
-        }
-        catch (ResponseException ex) {
-            ctx.status(500);
-            throw ex;
-        }
+    public CompletableFuture<Void> clearAsync(Context ctx) {
+        return Futures.statusOnFailure(userService.clearAsync(), ctx, ex -> 500);
     }
 }
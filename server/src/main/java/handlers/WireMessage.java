@@ -0,0 +1,51 @@
+package handlers;
+
+import com.google.gson.Gson;
+import websocket.BinaryProtocol;
+import websocket.MessageTypeAdapterFactory;
+import websocket.messages.ServerMessage;
+
+/**
+ * One server message on its way to any number of sessions, serialized at most once as JSON and once as binary
+ * (see BinaryProtocol), and only in the forms some session actually needs.
+ */
+final class WireMessage {
+
+    private static final Gson GSON = MessageTypeAdapterFactory.newGson();
+
+    private ServerMessage message;
+    private String json;
+    private byte[] binary;
+
+    private WireMessage(ServerMessage message, String json) {
+        this.message = message;
+        this.json = json;
+    }
+
+    static WireMessage of(ServerMessage message) {
+        return new WireMessage(message, null);
+    }
+
+    // e.g. from another node over the backplane, only parsed if a binary session needs it
+    static WireMessage ofJson(String json) {
+        return new WireMessage(null, json);
+    }
+
+    // not thread safe, but racing threads would only serialize the same thing twice
+    String json() {
+        if (json == null) {json = GSON.toJson(message);}
+        return json;
+    }
+
+    byte[] binary() {
+        if (binary == null) {binary = BinaryProtocol.encodeMessage(message());}
+        return binary;
+    }
+
+    private ServerMessage message() {
+        if (message == null) {
+            message = GSON.fromJson(json, ServerMessage.class);
+        }
+        return message;
+    }
+}
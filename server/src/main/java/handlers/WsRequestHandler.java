@@ -2,46 +2,103 @@ package handlers;
 
 import com.google.gson.Gson;
 import dataaccess.DataAccessException;
+import io.javalin.websocket.WsBinaryMessageContext;
+import io.javalin.websocket.WsBinaryMessageHandler;
 import io.javalin.websocket.WsCloseContext;
 import io.javalin.websocket.WsCloseHandler;
 import io.javalin.websocket.WsConnectContext;
 import io.javalin.websocket.WsConnectHandler;
+import io.javalin.websocket.WsErrorContext;
+import io.javalin.websocket.WsErrorHandler;
 import io.javalin.websocket.WsMessageContext;
 import io.javalin.websocket.WsMessageHandler;
 import org.jetbrains.annotations.NotNull;
 import service.WsRequestService;
+import websocket.BinaryProtocol;
+import websocket.MessageTypeAdapterFactory;
 import websocket.commands.ConnectCommand;
 import websocket.commands.MakeMoveCommand;
 import websocket.commands.UserGameCommand;
 import org.eclipse.jetty.websocket.api.Session;
 import websocket.messages.ServerMessageError;
 
+import java.nio.ByteBuffer;
 
-public class WsRequestHandler implements WsConnectHandler, WsMessageHandler, WsCloseHandler {
+
+public class WsRequestHandler implements WsConnectHandler, WsMessageHandler, WsBinaryMessageHandler, WsCloseHandler,
+        WsErrorHandler {
+
+    public static final int DEFAULT_LANES = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
 
     private final AuthHandler authHandler;
-    private final ConnectionManager connectionManager = new ConnectionManager();
-    private final Gson gson = new Gson();
+    private final ConnectionManager connectionManager;
+    private final Gson gson = MessageTypeAdapterFactory.newGson();
     private final WsRequestService wsService;
+    // keeps each game's commands in order, see GameLanes
+    private final GameLanes lanes;
 
     public WsRequestHandler(AuthHandler authHandler, GameHandler gameHandler) {
+        this(authHandler, gameHandler, new InProcessBackplane(), false, DEFAULT_LANES);
+    }
+
+    public WsRequestHandler(AuthHandler authHandler, GameHandler gameHandler, Backplane backplane,
+                            boolean batchMessages, int laneCount) {
         this.authHandler = authHandler;
+        this.lanes = new GameLanes(laneCount);
+        this.connectionManager = new ConnectionManager(backplane, batchMessages);
         this.wsService = new WsRequestService(connectionManager, gameHandler.getGameService());
     }
 
     @Override
     public void handleConnect(WsConnectContext ctx) {
         ctx.enableAutomaticPings();
+        connectionManager.open(ctx.session);
         System.out.println("Websocket connected");
     }
 
     @Override
     public void handleMessage(@NotNull WsMessageContext ctx) {
+        UserGameCommand command;
+        try {
+            // comes back as a ConnectCommand or MakeMoveCommand when it is one, see MessageTypeAdapterFactory
+            command = gson.fromJson(ctx.message(), UserGameCommand.class);
+        }
+        catch (RuntimeException e) {
+            System.out.println("Error: unable to read a WebSocket command: " + e.getMessage());
+            return;
+        }
+        submit(ctx.session, command);
+    }
+
+    @Override
+    public void handleBinaryMessage(@NotNull WsBinaryMessageContext ctx) {
+        UserGameCommand command;
+        try {
+            command = BinaryProtocol.decodeCommand(ByteBuffer.wrap(ctx.data(), ctx.offset(), ctx.length()));
+        }
+        catch (IllegalArgumentException e) {
+            System.out.println("Error: unable to read a binary WebSocket command: " + e.getMessage());
+            return;
+        }
+        connectionManager.useBinary(ctx.session);
+        submit(ctx.session, command);
+    }
+
+    // once a command is decoded, the same for JSON and binary
+    void submit(Session session, UserGameCommand command) {
+        if (command == null) {return;}
+        lanes.execute(command.getGameID(), () -> handleCommand(session, command));
+    }
+
+    public void shutdown() {
+        lanes.shutdown();
+    }
+
+    private void handleCommand(Session session, UserGameCommand command) {
         int gameID;
-        Session session = ctx.session;
 
+        connectionManager.beginBatch();
         try {
-            UserGameCommand command = gson.fromJson(ctx.message(), UserGameCommand.class);
             gameID = command.getGameID();
             String username;
 
@@ -51,29 +108,30 @@ public class WsRequestHandler implements WsConnectHandler, WsMessageHandler, WsC
             }
             catch (DataAccessException e) {
                 ServerMessageError error = new ServerMessageError(e.getMessage());
-                connectionManager.notifySingleSession(session, command.getGameID(), gson.toJson(error));
+                connectionManager.notifySingleSession(session, command.getGameID(), error);
                 return;
             }
 
             // test the DAO to see if the gameID is valid
             try {
-                wsService.getGameService().getGame(gameID);
+                wsService.getGameService().viewGame(gameID);
             }
             catch (DataAccessException e) {
                 ServerMessageError error = new ServerMessageError(e.getMessage());
-                connectionManager.notifySingleSession(session, command.getGameID(), gson.toJson(error));
+                connectionManager.notifySingleSession(session, command.getGameID(), error);
                 return;
             }
 
             switch (command.getCommandType()) {
                 case CONNECT -> {
-                    ConnectCommand newCommand = gson.fromJson(ctx.message(), ConnectCommand.class);
-                    connectionManager.add(gameID, session);
+                    ConnectCommand newCommand = (ConnectCommand) command;
+                    connectionManager.add(gameID, session, username);
+                    if (newCommand.wantsMoveUpdates()) {connectionManager.useMoveUpdates(session);}
                     wsService.connect(session, username, newCommand);
-                    wsService.loadGame(session, gameID);
+                    wsService.loadGame(session, username, gameID);
                 }
                 case MAKE_MOVE -> {
-                    MakeMoveCommand newCommand = gson.fromJson(ctx.message(), MakeMoveCommand.class);
+                    MakeMoveCommand newCommand = (MakeMoveCommand) command;
                     wsService.makeMove(session, username, gameID, newCommand.getMove());
                 }
                 case LEAVE -> {
@@ -81,16 +139,28 @@ public class WsRequestHandler implements WsConnectHandler, WsMessageHandler, WsC
                     connectionManager.remove(gameID, session);
                 }
                 case RESIGN -> wsService.resign(session, username, gameID);
+                case RESYNC -> wsService.loadGame(session, username, gameID);
             }
         }
         catch (Exception e) {
             System.out.println("Error: somehow the server failed to send a ServerErrorMessage");
         }
+        finally {
+            connectionManager.endBatch();
+        }
     }
 
     @Override
     public void handleClose(@NotNull WsCloseContext ctx) {
-        System.out.println("Websocket closed");
+        String username = connectionManager.removeSession(ctx.session);
+        System.out.println((username != null) ? "Websocket closed for " + username : "Websocket closed");
+    }
+
+    // close isn't always called after an error, so clean up here too, removeSession is fine to call twice
+    @Override
+    public void handleError(@NotNull WsErrorContext ctx) {
+        connectionManager.removeSession(ctx.session);
+        System.out.println("Websocket error: " + ((ctx.error() != null) ? ctx.error().getMessage() : "unknown"));
     }
 }
 
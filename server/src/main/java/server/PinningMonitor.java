@@ -0,0 +1,53 @@
+package server;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordingStream;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Prints whenever a virtual thread blocks while pinned to its carrier (usually inside a synchronized block or a
+ * native call) for longer than the threshold. Pinned threads hold a carrier hostage, so a few of them on a hot
+ * path can undo the point of running on virtual threads. Uses the JFR event, so it works without restarting the
+ * JVM with -Djdk.tracePinnedThreads.
+ */
+public class PinningMonitor implements AutoCloseable {
+
+    private static final int FRAMES_TO_PRINT = 8;
+
+    private final RecordingStream stream;
+
+    public PinningMonitor(Duration threshold) {
+        stream = new RecordingStream();
+        stream.enable("jdk.VirtualThreadPinned").withThreshold(threshold).withStackTrace();
+        stream.onEvent("jdk.VirtualThreadPinned", this::report);
+        stream.startAsync();
+    }
+
+    private void report(RecordedEvent event) {
+        StringBuilder message = new StringBuilder("Virtual thread pinned for ")
+                .append(event.getDuration().toMillis()).append("ms");
+        if (event.getThread() != null) {
+            message.append(" on ").append(event.getThread().getJavaName());
+        }
+        RecordedStackTrace stackTrace = event.getStackTrace();
+        if (stackTrace != null) {
+            List<RecordedFrame> frames = stackTrace.getFrames();
+            for (int i = 0; i < Math.min(FRAMES_TO_PRINT, frames.size()); i++) {
+                RecordedFrame frame = frames.get(i);
+                message.append("\n    at ").append(frame.getMethod().getType().getName())
+                        .append('.').append(frame.getMethod().getName())
+                        .append(':').append(frame.getLineNumber());
+            }
+        }
+        System.out.println(message);
+    }
+
+    @Override
+    public void close() {
+        stream.close();
+    }
+}
@@ -3,9 +3,17 @@ package server;
 import dataaccess.*;
 import handlers.*;
 import io.javalin.*;
+import io.javalin.config.JavalinConfig;
 import io.javalin.http.Context;
-import java.sql.Connection;
-import java.sql.SQLException;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import service.SessionSweeper;
+import service.WorkerPool;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
 
 
 public class Server {
@@ -15,6 +23,16 @@ public class Server {
     private final UserHandler userHandler;
     private final GameHandler gameHandler;
     private final WsRequestHandler wsHandler;
+    private final SessionSweeper sessionSweeper;
+    private final Backplane backplane;
+    // the memory or mapped store to close on stop, null when using MySQL
+    private final AutoCloseable store;
+    // only while running with threads.pinningDiagnostics on
+    private PinningMonitor pinningMonitor;
+    // BCrypt is slow on purpose, so logins and registrations get their own threads
+    private final WorkerPool passwordWorkers = new WorkerPool("password",
+            ServerConfig.getInt("passwords.threads", Math.max(2, Runtime.getRuntime().availableProcessors())),
+            ServerConfig.getInt("passwords.queueSize", 64));
 
 
     public Server() {
@@ -32,29 +50,58 @@ public class Server {
         // and once for the MakeMoveCommand)
         // or I could potentially just have it be null if it's not a MakeMove request
 
-        try {
-            configureDatabase();
-        }
-        catch (Exception ex) {
-            System.out.println("Failed to initialize the database, RIP");
-            throw new RuntimeException("Error: database is down");
-        }
-
-        boolean useSQL = true;
-        if (useSQL) {
-            this.authHandler = new AuthHandler(new SQLAuthDAO());
-            this.userHandler = new UserHandler(new SQLUserDAO(), authHandler);
-            this.gameHandler = new GameHandler(new SQLGameDAO(), authHandler);
-        }
-        // add a way for this to swap between memory and SQL
-        else {
-            this.authHandler = new AuthHandler(new MemoryAuthDAO());
-            this.userHandler = new UserHandler(new MemoryUserDAO(), authHandler);
-            this.gameHandler = new GameHandler(new MemoryGameDAO(), authHandler);
+        // "mysql" by default, "memory" to keep everything in this process (see MemoryStore),
+        // or "mapped" for files in a local directory (see MappedStore)
+        String storage = ServerConfig.get("storage", "mysql");
+        Duration sessionIdleTimeout = Duration.ofMinutes(ServerConfig.getInt("auth.sessionIdleMinutes",
+                (int) AuthDAO.DEFAULT_IDLE_TIMEOUT.toMinutes()));
+        AuthDAO authDAO;
+        switch (storage) {
+            case "mysql" -> {
+                try {
+                    configureDatabase();
+                }
+                catch (Exception ex) {
+                    System.out.println("Failed to initialize the database, RIP");
+                    throw new RuntimeException("Error: database is down");
+                }
+                this.store = null;
+                authDAO = new SQLAuthDAO(sessionIdleTimeout);
+                this.authHandler = new AuthHandler(authDAO);
+                this.userHandler = new UserHandler(new SQLUserDAO(), authHandler, passwordWorkers);
+                // db.shards spreads games over several databases, everything else stays in the main one
+                GameDAO gameDAO = DatabaseManager.isSharded() ? new ShardedGameDAO() : new SQLGameDAO();
+                this.gameHandler = new GameHandler(gameDAO, authHandler);
+            }
+            case "memory" -> {
+                MemoryStore memoryStore = openMemoryStore();
+                this.store = memoryStore;
+                authDAO = new MemoryAuthDAO(memoryStore, sessionIdleTimeout);
+                this.authHandler = new AuthHandler(authDAO);
+                this.userHandler = new UserHandler(new MemoryUserDAO(memoryStore), authHandler, passwordWorkers);
+                this.gameHandler = new GameHandler(new MemoryGameDAO(memoryStore), authHandler);
+            }
+            case "mapped" -> {
+                MappedStore mappedStore = openMappedStore();
+                this.store = mappedStore;
+                authDAO = new MappedAuthDAO(mappedStore, sessionIdleTimeout);
+                this.authHandler = new AuthHandler(authDAO);
+                this.userHandler = new UserHandler(new MappedUserDAO(mappedStore), authHandler, passwordWorkers);
+                this.gameHandler = new GameHandler(new MappedGameDAO(mappedStore), authHandler);
+            }
+            default -> throw new IllegalStateException("Unknown storage " + storage + ", expected mysql, memory, or mapped");
         }
-        this.wsHandler = new WsRequestHandler(authHandler, gameHandler);
-
-        javalin = Javalin.create(config -> config.staticFiles.add("web"))
+        this.sessionSweeper = new SessionSweeper(authDAO, ServerConfig.getInt("auth.sweepIntervalSeconds", 60));
+        this.backplane = openBackplane();
+        authHandler.shareRevocations(backplane);
+        this.wsHandler = new WsRequestHandler(authHandler, gameHandler, backplane,
+                ServerConfig.getBoolean("ws.batchMessages", false),
+                ServerConfig.getInt("ws.lanes", WsRequestHandler.DEFAULT_LANES));
+
+        javalin = Javalin.create(config -> {
+            config.staticFiles.add("web");
+            configureThreads(config);
+        })
 
         // Register your endpoints and exception handlers here.
         .post("/user", userHandler::handleRegister)
@@ -71,16 +118,59 @@ public class Server {
             ws.onConnect(wsHandler);
             ws.onClose(wsHandler);
             ws.onMessage(wsHandler);
+            ws.onBinaryMessage(wsHandler);
+            ws.onError(wsHandler);
         });
     }
 
     public int run(int desiredPort) {
+        if (useVirtualThreads() && ServerConfig.getBoolean("threads.pinningDiagnostics", false)) {
+            pinningMonitor = new PinningMonitor(
+                    Duration.ofMillis(ServerConfig.getInt("threads.pinnedThresholdMillis", 20)));
+        }
         javalin.start(desiredPort);
+        sessionSweeper.start();
         return javalin.port();
     }
 
     public void stop() {
         javalin.stop();
+        sessionSweeper.stop();
+        passwordWorkers.shutdown();
+        wsHandler.shutdown();
+        backplane.close();
+        if (pinningMonitor != null) {
+            pinningMonitor.close();
+            pinningMonitor = null;
+        }
+        if (store != null) {
+            try {
+                store.close();
+            }
+            catch (Exception ex) {
+                System.out.println("Failed to save the " + ServerConfig.get("storage", "mysql") + " store: " + ex.getMessage());
+            }
+        }
+    }
+
+    private static boolean useVirtualThreads() {
+        return ServerConfig.getBoolean("threads.virtual", false);
+    }
+
+    /**
+     * With threads.virtual on, every HTTP request and WebSocket message gets its own virtual thread, so requests
+     * blocked on the database stop using up the pool. Otherwise Jetty uses a normal pool of http.maxThreads.
+     * BCrypt stays on the password workers either way since it needs a CPU rather than a thread.
+     */
+    static void configureThreads(JavalinConfig config) {
+        if (useVirtualThreads()) {
+            config.useVirtualThreads = true;
+            return;
+        }
+        QueuedThreadPool threadPool = new QueuedThreadPool(ServerConfig.getInt("http.maxThreads", 250),
+                ServerConfig.getInt("http.minThreads", 8), 60_000);
+        threadPool.setName("JettyServerThreadPool");
+        config.jetty.threadPool = threadPool;
     }
 
     private void setHTTPStatusTo500IfStatusNotSet(Context ctx) {
@@ -100,53 +190,62 @@ public class Server {
         ctx.result("{\"message\": \"" + ex.getMessage() + "\"}");
     }
 
-    private void clear(Context ctx) throws server.ResponseException {
-        gameHandler.clear(ctx);
-        authHandler.clear(ctx);
-        userHandler.clear(ctx);
+    private void clear(Context ctx) {
+        // the tables don't depend on each other, so they can be cleared at the same time
+        ctx.future(() -> CompletableFuture.allOf(
+                gameHandler.clearAsync(ctx), authHandler.clearAsync(ctx), userHandler.clearAsync(ctx)));
     }
 
-    private final String[] createStatements = {
-//            """
-//            DROP TABLE IF EXISTS users
-//            """,
-            """
-            CREATE TABLE IF NOT EXISTS users (
-            `username` varchar(50) NOT NULL,
-            `password` varchar(100) NOT NULL,
-            `email` varchar(50),
-            PRIMARY KEY (`username`)
-            )
-            """,
-            """
-            CREATE TABLE IF NOT EXISTS auths (
-            `authtoken` varchar(50) NOT NULL,
-            `username` varchar(50) NOT NULL,
-            PRIMARY KEY (`authtoken`)
-            )
-            """,
-            """
-            CREATE TABLE IF NOT EXISTS games (
-            `gameid` int NOT NULL AUTO_INCREMENT,
-            `whiteusername` varchar(50),
-            `blackusername` varchar(50),
-            `gamename` varchar(50) NOT NULL,
-            `chessgame` TEXT,
-            PRIMARY KEY (`gameid`)
-            )
-            """
-    };
-
-    private void configureDatabase() throws DataAccessException {
-        DatabaseManager.createDatabase();
-        try (Connection conn = DatabaseManager.getConnection()) {
-            for (String statement : createStatements) {
-                try (var preparedStatement = conn.prepareStatement(statement)) {
-                    preparedStatement.executeUpdate();
+    // "local" by default, for a single node, or "tcp" to share WebSocket broadcasts with ws.backplanePeers.
+    // tcp needs ws.backplaneSecret, the same on every node, and only listens on loopback unless ws.backplaneBind
+    // says otherwise
+    private static Backplane openBackplane() {
+        String kind = ServerConfig.get("ws.backplane", "local");
+        switch (kind) {
+            case "local" -> {
+                return new InProcessBackplane();
+            }
+            case "tcp" -> {
+                int port = ServerConfig.getInt("ws.backplanePort", 9090);
+                try {
+                    String secret = ServerConfig.get("ws.backplaneSecret", null);
+                    if (secret == null) {
+                        throw new IllegalStateException("Error: the tcp backplane needs ws.backplaneSecret");
+                    }
+                    return new TcpBackplane(ServerConfig.get("ws.backplaneBind", null), port,
+                            ServerConfig.get("ws.backplanePeers", null), secret.getBytes(StandardCharsets.UTF_8));
+                }
+                catch (IOException ex) {
+                    throw new RuntimeException("Error: unable to listen for backplane peers on port " + port, ex);
                 }
             }
-        } catch (SQLException ex) {
-            throw new DataAccessException("Error: Unable to configure database.");
+            default -> throw new IllegalStateException("Unknown backplane " + kind + ", expected local or tcp");
+        }
+    }
+
+    private MemoryStore openMemoryStore() {
+        String directory = ServerConfig.get("memory.dir", null);
+        if (directory == null) {return new MemoryStore();}
+        try {
+            return MemoryStore.open(Path.of(directory), ServerConfig.getInt("memory.snapshotSeconds", 60));
         }
+        catch (IOException ex) {
+            throw new RuntimeException("Error: unable to load the memory store from " + directory, ex);
+        }
+    }
+
+    private MappedStore openMappedStore() {
+        String directory = ServerConfig.get("mapped.dir", "chess-data");
+        try {
+            return MappedStore.open(Path.of(directory));
+        }
+        catch (IOException ex) {
+            throw new RuntimeException("Error: unable to open the mapped store in " + directory, ex);
+        }
+    }
+
+    private void configureDatabase() throws DataAccessException {
+        DatabaseManager.createDatabase();
+        new SchemaMigrator().migrate();
     }
 }
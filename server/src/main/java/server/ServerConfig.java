@@ -0,0 +1,35 @@
+package server;
+
+import java.util.Locale;
+
+/**
+ * Optional server settings. Each one is read from the system property chess.&lt;name&gt;, or if that isn't set,
+ * from the environment variable CHESS_&lt;NAME&gt; (dots become underscores), e.g. chess.auth.signingKey or
+ * CHESS_AUTH_SIGNINGKEY.
+ */
+public final class ServerConfig {
+
+    private ServerConfig() {}
+
+    public static String get(String name, String defaultValue) {
+        String value = System.getProperty("chess." + name);
+        if (value == null) {
+            value = System.getenv("CHESS_" + name.replace('.', '_').toUpperCase(Locale.ROOT));
+        }
+        return (value == null || value.isBlank()) ? defaultValue : value.trim();
+    }
+
+    public static int getInt(String name, int defaultValue) {
+        String value = get(name, null);
+        try {
+            return (value == null) ? defaultValue : Integer.parseInt(value);
+        } catch (NumberFormatException ex) {
+            throw new IllegalStateException("Setting " + name + " should be a whole number, not " + value);
+        }
+    }
+
+    public static boolean getBoolean(String name, boolean defaultValue) {
+        String value = get(name, null);
+        return (value == null) ? defaultValue : Boolean.parseBoolean(value);
+    }
+}
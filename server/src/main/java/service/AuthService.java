@@ -1,37 +1,231 @@
 package service;
 
 import dataaccess.AuthDAO;
+import dataaccess.DaoExecutor;
 import dataaccess.DataAccessException;
 import model.AuthData;
 import server.ResponseException;
 
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
 
+/**
+ * Every HTTP and WebSocket request looks up its auth token, so lookups are cached here.
+ * <p>
+ * Valid tokens are cached for TTL_MILLIS and unknown tokens for NEGATIVE_TTL_MILLIS, which keeps a flood of bad
+ * tokens from turning into a flood of queries. Logging out or clearing through this service drops the token right
+ * away, but a logout on another server can take up to TTL_MILLIS to be noticed here.
+ */
 public class AuthService {
 
+    private record CachedAuth(AuthData auth, long expiresAt) {}
+
+    static final long TTL_MILLIS = 30_000;
+    static final long NEGATIVE_TTL_MILLIS = 2_000;
+    static final int MAX_ENTRIES = 10_000;
+
     private final AuthDAO authDAO;
+    // null unless signed tokens are turned on, in which case tokens never touch the database
+    private final TokenSigner signer;
+    private final LongSupplier clock;
+    private final Map<String, CachedAuth> cache = new ConcurrentHashMap<>();
+    private final Map<String, Long> unknownTokens = new ConcurrentHashMap<>();
+    // bumped before and after every delete, so a lookup that raced with a logout doesn't put the token back in the
+    // cache, whether it read the database before the delete or while it was running
+    private final AtomicLong invalidations = new AtomicLong();
 
     public static String generateToken() {
         return UUID.randomUUID().toString();
     }
 
-    public AuthService(AuthDAO authDAO) {this.authDAO = authDAO;}
+    public AuthService(AuthDAO authDAO) {this(authDAO, null);}
+
+    public AuthService(AuthDAO authDAO, TokenSigner signer) {this(authDAO, signer, System::currentTimeMillis);}
+
+    AuthService(AuthDAO authDAO, TokenSigner signer, LongSupplier clock) {
+        this.authDAO = authDAO;
+        this.signer = signer;
+        this.clock = clock;
+    }
+
+    public AuthData createAuth(String username) throws ResponseException {
+        if (signer != null) {
+            return signer.issue(username);
+        }
+        AuthData auth = new AuthData(generateToken(), username);
+        createAuth(auth);
+        return auth;
+    }
 
     public void createAuth(AuthData auth) throws ResponseException {
         // add a method at some point that removes any auths from a user with the given username
         authDAO.createAuth(auth);
+        unknownTokens.remove(auth.authToken());
     }
 
     public AuthData getAuth(String authToken) throws DataAccessException, ResponseException {
-        return authDAO.getAuth(authToken);
+        if (signer != null) {
+            return signer.verify(authToken);
+        }
+        if (authToken == null) {
+            return authDAO.getAuth(null);
+        }
+
+        long now = clock.getAsLong();
+        AuthData cached = lookupCached(authToken, now);
+        if (cached != null) {
+            return cached;
+        }
+
+        long invalidationsBefore = invalidations.get();
+        AuthData auth;
+        try {
+            auth = authDAO.getAuth(authToken);
+        }
+        catch (DataAccessException ex) {
+            rememberUnknown(authToken, now);
+            throw ex;
+        }
+        rememberAuth(authToken, auth, now, invalidationsBefore);
+        return auth;
+    }
+
+    public CompletableFuture<AuthData> getAuthAsync(String authToken) {
+        if (signer != null) {
+            // just a signature check, quicker than handing it to another thread
+            try {
+                return CompletableFuture.completedFuture(signer.verify(authToken));
+            }
+            catch (DataAccessException ex) {
+                return CompletableFuture.failedFuture(ex);
+            }
+        }
+        if (authToken == null) {
+            return DaoExecutor.supply(() -> getAuth(null));
+        }
+
+        long now = clock.getAsLong();
+        try {
+            AuthData cached = lookupCached(authToken, now);
+            if (cached != null) {
+                return CompletableFuture.completedFuture(cached);
+            }
+        }
+        catch (DataAccessException ex) {
+            return CompletableFuture.failedFuture(ex);
+        }
+
+        long invalidationsBefore = invalidations.get();
+        return authDAO.getAuthAsync(authToken).whenComplete((auth, ex) -> {
+            if (auth != null) {
+                rememberAuth(authToken, auth, now, invalidationsBefore);
+            }
+            else if (ex instanceof DataAccessException) {
+                rememberUnknown(authToken, now);
+            }
+        });
+    }
+
+    /**
+     * @return the cached auth, or null if the DAO has to be asked
+     * @throws DataAccessException if the token was recently looked up and didn't exist
+     */
+    private AuthData lookupCached(String authToken, long now) throws DataAccessException {
+        CachedAuth cached = cache.get(authToken);
+        if (cached != null && cached.expiresAt() > now) {
+            return cached.auth();
+        }
+        Long unknownUntil = unknownTokens.get(authToken);
+        if (unknownUntil != null && unknownUntil > now) {
+            throw new DataAccessException("Error: unauthorized");
+        }
+        return null;
+    }
+
+    private void rememberAuth(String authToken, AuthData auth, long now, long invalidationsBefore) {
+        makeRoom(cache, now);
+        cache.put(authToken, new CachedAuth(auth, now + TTL_MILLIS));
+        if (invalidations.get() != invalidationsBefore) {
+            cache.remove(authToken);
+        }
+    }
+
+    private void rememberUnknown(String authToken, long now) {
+        makeRoom(unknownTokens, now);
+        unknownTokens.put(authToken, now + NEGATIVE_TTL_MILLIS);
+        cache.remove(authToken);
     }
 
     public void deleteAuth(String authToken) throws ResponseException {
-        authDAO.deleteAuth(authToken);
+        if (signer != null) {
+            if (!signer.revoke(authToken)) {
+                throw new ResponseException("Error: bad request");
+            }
+            return;
+        }
+        forget(authToken);
+        try {
+            authDAO.deleteAuth(authToken);
+        }
+        finally {
+            forget(authToken);
+        }
+    }
+
+    public CompletableFuture<Void> deleteAuthAsync(String authToken) {
+        if (signer != null) {
+            return DaoExecutor.run(() -> deleteAuth(authToken));
+        }
+        forget(authToken);
+        return authDAO.deleteAuthAsync(authToken).whenComplete((ignored, ex) -> forget(authToken));
+    }
+
+    private void forget(String authToken) {
+        invalidations.incrementAndGet();
+        cache.remove(authToken);
     }
 
     public void clear() throws ResponseException {
-        authDAO.clear();
+        forgetEverything();
+        try {
+            authDAO.clear();
+        }
+        finally {
+            forgetEverything();
+        }
+    }
+
+    public CompletableFuture<Void> clearAsync() {
+        forgetEverything();
+        return authDAO.clearAsync().whenComplete((ignored, ex) -> forgetEverything());
+    }
+
+    private void forgetEverything() {
+        if (signer != null) {
+            signer.revokeAll();
+        }
+        invalidations.incrementAndGet();
+        cache.clear();
+        unknownTokens.clear();
+    }
+
+    /**
+     * Drops expired entries once the map is full, and everything if that wasn't enough.
+     */
+    private void makeRoom(Map<String, ?> map, long now) {
+        if (map.size() < MAX_ENTRIES) {return;}
+        map.values().removeIf(value -> switch (value) {
+            case CachedAuth cached -> cached.expiresAt() <= now;
+            case Long expiresAt -> expiresAt <= now;
+            default -> true;
+        });
+        if (map.size() >= MAX_ENTRIES) {
+            map.clear();
+        }
     }
 
 }
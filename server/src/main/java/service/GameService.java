@@ -1,12 +1,16 @@
 package service;
 
+import chess.ChessGame;
 import dataaccess.DataAccessException;
 import dataaccess.GameDAO;
 import model.GameData;
+import model.GameListQuery;
 import model.JoinData;
+import model.JsonFriendlyGameData;
 import server.ResponseException;
 
 import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
 
 public class GameService {
 
@@ -16,18 +20,34 @@ public class GameService {
 
     public GameDAO getGameDAO() {return this.gameDAO;}
 
-    public int createGame(GameData gameData) throws ResponseException {
+    public int createGame(GameData gameData) throws ResponseException, DataAccessException {
         return gameDAO.createGame(gameData);
     }
 
+    public CompletableFuture<Integer> createGameAsync(GameData gameData) {
+        return gameDAO.createGameAsync(gameData);
+    }
+
     public Collection<GameData> listGames() throws ResponseException {
         return gameDAO.listGames();
     }
 
+    public Collection<JsonFriendlyGameData> listGameSummaries(GameListQuery query) throws ResponseException {
+        return gameDAO.listGameSummaries(query);
+    }
+
+    public CompletableFuture<Collection<JsonFriendlyGameData>> listGameSummariesAsync(GameListQuery query) {
+        return gameDAO.listGameSummariesAsync(query);
+    }
+
     public GameData getGame(int gameID) throws DataAccessException, ResponseException {
         return gameDAO.getGame(gameID);
     }
 
+    public GameData viewGame(int gameID) throws DataAccessException, ResponseException {
+        return gameDAO.viewGame(gameID);
+    }
+
     public void updateGame(JoinData joinData, String username) throws DataAccessException, ResponseException {
         switch (joinData.playerColor()) {
             case "WHITE" : gameDAO.updateWhiteUsername(joinData, username); break;
@@ -36,8 +56,28 @@ public class GameService {
         }
     }
 
+    public CompletableFuture<Void> updateGameAsync(JoinData joinData, String username) {
+        return switch (joinData.playerColor()) {
+            case "WHITE" -> gameDAO.updateWhiteUsernameAsync(joinData, username);
+            case "BLACK" -> gameDAO.updateBlackUsernameAsync(joinData, username);
+            default -> CompletableFuture.failedFuture(new DataAccessException("Error: bad request"));
+        };
+    }
+
+    public void saveGame(int gameID, ChessGame game) throws ResponseException {
+        gameDAO.updateGame(gameID, game);
+    }
+
+    public void removePlayer(int gameID, String username) throws ResponseException {
+        gameDAO.removeUser(gameID, username);
+    }
+
     public void clear() throws ResponseException {
         gameDAO.clear();
     }
 
+    public CompletableFuture<Void> clearAsync() {
+        return gameDAO.clearAsync();
+    }
+
 }
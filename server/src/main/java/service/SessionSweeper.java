@@ -0,0 +1,68 @@
+package service;
+
+import dataaccess.AuthDAO;
+import server.ResponseException;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically deletes expired sessions in small batches, so the auths table doesn't keep every login forever.
+ */
+public class SessionSweeper {
+
+    static final int BATCH_SIZE = 500;
+    // caps one sweep at this many batches, the rest waits for the next sweep
+    static final int MAX_BATCHES_PER_SWEEP = 20;
+
+    private final AuthDAO authDAO;
+    private final long intervalSeconds;
+    private ScheduledExecutorService scheduler;
+
+    public SessionSweeper(AuthDAO authDAO, long intervalSeconds) {
+        this.authDAO = authDAO;
+        this.intervalSeconds = intervalSeconds;
+    }
+
+    public synchronized void start() {
+        if (scheduler != null) {return;}
+        scheduler = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "session-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::sweepAndLog, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    public synchronized void stop() {
+        if (scheduler == null) {return;}
+        scheduler.shutdownNow();
+        scheduler = null;
+    }
+
+    /**
+     * @return how many sessions were deleted
+     */
+    public int sweep() throws ResponseException {
+        int total = 0;
+        for (int batch = 0; batch < MAX_BATCHES_PER_SWEEP; batch++) {
+            int deleted = authDAO.deleteExpired(BATCH_SIZE);
+            total += deleted;
+            if (deleted < BATCH_SIZE) {break;}
+        }
+        return total;
+    }
+
+    private void sweepAndLog() {
+        // an exception would cancel the schedule, so a failed sweep just waits for the next one
+        try {
+            int deleted = sweep();
+            if (deleted > 0) {
+                System.out.println("Deleted " + deleted + " expired sessions");
+            }
+        } catch (ResponseException | RuntimeException ex) {
+            System.out.println("Failed to delete expired sessions: " + ex.getMessage());
+        }
+    }
+}
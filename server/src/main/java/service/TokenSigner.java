@@ -0,0 +1,179 @@
+package service;
+
+import dataaccess.DataAccessException;
+import model.AuthData;
+import server.ServerConfig;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Issues and checks self-contained auth tokens, so any server with the same key can validate them without a
+ * database lookup.
+ * <p>
+ * A token is base64url(issuedAt|expiresAt|nonce|username) + "." + base64url(HMAC-SHA256 of that payload).
+ * Logging out puts the nonce in a revocation set until the token would have expired anyway, and clearing the
+ * database rejects every token issued up to then. Both are passed to the RevocationListener so other servers
+ * can apply them too, see AuthHandler.shareRevocations. A server that misses one, because it was down or the
+ * backplane dropped it, keeps accepting that token until it expires.
+ */
+public class TokenSigner {
+
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final int MIN_KEY_BYTES = 32;
+    private static final int DEFAULT_LIFETIME_MINUTES = 12 * 60;
+    private static final int PURGE_REVOKED_AT = 1_000;
+
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private record Claims(long issuedAt, long expiresAt, String nonce, String username) {}
+
+    /**
+     * Hears about revocations made on this server, not ones passed in from another.
+     */
+    public interface RevocationListener {
+        void revoked(String token);
+
+        void revokedAll(long notBefore);
+    }
+
+    private final SecretKeySpec key;
+    private final long lifetimeMillis;
+    private final LongSupplier clock;
+    // Mac instances aren't thread safe
+    private final ThreadLocal<Mac> macs;
+    private final Map<String, Long> revoked = new ConcurrentHashMap<>();
+    private final AtomicLong notBefore = new AtomicLong(0);
+    private volatile RevocationListener listener;
+
+    TokenSigner(byte[] key, long lifetimeMillis, LongSupplier clock) {
+        if (key.length < MIN_KEY_BYTES) {
+            throw new IllegalArgumentException("Token signing key must be at least " + MIN_KEY_BYTES + " bytes");
+        }
+        this.key = new SecretKeySpec(key, ALGORITHM);
+        this.lifetimeMillis = lifetimeMillis;
+        this.clock = clock;
+        this.macs = ThreadLocal.withInitial(this::newMac);
+    }
+
+    /**
+     * @return a signer using the auth.signingKey setting, or null to keep using random tokens stored in the database
+     */
+    public static TokenSigner fromConfig() {
+        String key = ServerConfig.get("auth.signingKey", null);
+        if (key == null) {return null;}
+        long lifetimeMillis = ServerConfig.getInt("auth.tokenLifetimeMinutes", DEFAULT_LIFETIME_MINUTES) * 60_000L;
+        return new TokenSigner(key.getBytes(StandardCharsets.UTF_8), lifetimeMillis, System::currentTimeMillis);
+    }
+
+    public void setRevocationListener(RevocationListener listener) {
+        this.listener = listener;
+    }
+
+    public AuthData issue(String username) {
+        // after a revokeAll in the same millisecond, so the new token isn't caught by it
+        long now = Math.max(clock.getAsLong(), notBefore.get() + 1);
+        byte[] nonce = new byte[8];
+        RANDOM.nextBytes(nonce);
+        String payload = now + "|" + (now + lifetimeMillis) + "|" + HexFormat.of().formatHex(nonce) + "|" + username;
+        byte[] payloadBytes = payload.getBytes(StandardCharsets.UTF_8);
+        String token = ENCODER.encodeToString(payloadBytes) + "." + ENCODER.encodeToString(sign(payloadBytes));
+        return new AuthData(token, username);
+    }
+
+    public AuthData verify(String token) throws DataAccessException {
+        Claims claims = readClaims(token);
+        if (claims == null || claims.expiresAt() <= clock.getAsLong() || claims.issuedAt() <= notBefore.get()
+                || revoked.containsKey(claims.nonce())) {
+            throw new DataAccessException("Error: unauthorized");
+        }
+        return new AuthData(token, claims.username());
+    }
+
+    /**
+     * @return false if the token wasn't one this signer made
+     */
+    public boolean revoke(String token) {
+        if (!acceptRevocation(token)) {return false;}
+        RevocationListener current = listener;
+        if (current != null) {current.revoked(token);}
+        return true;
+    }
+
+    public void revokeAll() {
+        long now = clock.getAsLong();
+        acceptRevokeAll(now);
+        RevocationListener current = listener;
+        if (current != null) {current.revokedAll(now);}
+    }
+
+    /**
+     * Applies a logout from another server, without telling the listener.
+     * @return false if the token wasn't one this signer made
+     */
+    public boolean acceptRevocation(String token) {
+        Claims claims = readClaims(token);
+        if (claims == null) {return false;}
+        long now = clock.getAsLong();
+        if (revoked.size() >= PURGE_REVOKED_AT) {
+            revoked.values().removeIf(expiresAt -> expiresAt <= now);
+        }
+        revoked.put(claims.nonce(), claims.expiresAt());
+        return true;
+    }
+
+    /**
+     * Applies a clear from another server, without telling the listener. Revoked nonces are kept, since a token
+     * from a server with a clock ahead of this one can still be issued after notBefore.
+     */
+    public void acceptRevokeAll(long notBefore) {
+        this.notBefore.accumulateAndGet(notBefore, Math::max);
+    }
+
+    /**
+     * @return the token's claims, or null if it isn't a token this signer made
+     */
+    private Claims readClaims(String token) {
+        if (token == null) {return null;}
+        int dot = token.indexOf('.');
+        if (dot < 0) {return null;}
+        try {
+            byte[] payloadBytes = DECODER.decode(token.substring(0, dot));
+            byte[] signature = DECODER.decode(token.substring(dot + 1));
+            if (!MessageDigest.isEqual(sign(payloadBytes), signature)) {return null;}
+
+            String[] parts = new String(payloadBytes, StandardCharsets.UTF_8).split("\\|", 4);
+            if (parts.length != 4) {return null;}
+            return new Claims(Long.parseLong(parts[0]), Long.parseLong(parts[1]), parts[2], parts[3]);
+        } catch (IllegalArgumentException ex) {
+            // bad base64 or a bad number, either way not one of ours
+            return null;
+        }
+    }
+
+    private byte[] sign(byte[] payload) {
+        return macs.get().doFinal(payload);
+    }
+
+    private Mac newMac() {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            return mac;
+        } catch (GeneralSecurityException ex) {
+            throw new IllegalStateException("Unable to set up token signing", ex);
+        }
+    }
+}
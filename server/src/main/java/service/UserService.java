@@ -3,8 +3,15 @@ package service;
 import dataaccess.DataAccessException;
 import dataaccess.UserDAO;
 import model.UserData;
+import org.mindrot.jbcrypt.BCrypt;
 import server.ResponseException;
 
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * register and login spend most of their time in BCrypt, so they should be run on a WorkerPool
+ * rather than on a request thread.
+ */
 public class UserService {
 
     private final UserDAO userDAO;
@@ -12,7 +19,16 @@ public class UserService {
     public UserService(UserDAO userDAO) {this.userDAO = userDAO;}
 
     public void register(UserData userData) throws ResponseException, DataAccessException {
-        userDAO.createUser(userData);
+        String hashedPassword = BCrypt.hashpw(userData.password(), BCrypt.gensalt());
+        userDAO.createUser(new UserData(userData.username(), hashedPassword, userData.email()));
+    }
+
+    public UserData login(String username, String password) throws DataAccessException, ResponseException {
+        UserData userData = userDAO.getUser(username);
+        if (!BCrypt.checkpw(password, userData.password())) {
+            throw new DataAccessException("Error: unauthorised");
+        }
+        return userData;
     }
 
     public UserData getUser(String username) throws DataAccessException, ResponseException {
@@ -23,4 +39,8 @@ public class UserService {
         userDAO.clear();
     }
 
+    public CompletableFuture<Void> clearAsync() {
+        return userDAO.clearAsync();
+    }
+
 }
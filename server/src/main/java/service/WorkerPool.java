@@ -0,0 +1,53 @@
+package service;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A fixed number of threads with a bounded queue in front of them, for slow CPU-bound work like BCrypt that
+ * shouldn't tie up the threads serving requests.
+ * <p>
+ * When the queue is full, submit throws RejectedExecutionException right away, so callers can tell the client to
+ * come back later instead of piling up more waiting requests.
+ */
+public class WorkerPool {
+
+    private final ThreadPoolExecutor executor;
+
+    public WorkerPool(String name, int threads, int queueSize) {
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize),
+                task -> {
+                    Thread thread = new Thread(task, name + "-worker-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * @return a future completed with the task's result, or with the exception it threw (not wrapped)
+     * @throws RejectedExecutionException if the queue is full
+     */
+    public <T> CompletableFuture<T> submit(Callable<T> task) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        executor.execute(() -> {
+            try {
+                future.complete(task.call());
+            } catch (Throwable ex) {
+                future.completeExceptionally(ex);
+            }
+        });
+        return future;
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
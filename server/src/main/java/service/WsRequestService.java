@@ -2,36 +2,34 @@ package service;
 
 import chess.ChessGame;
 import chess.ChessMove;
-import com.google.gson.Gson;
-import dataaccess.SQLWsDAO;
 import handlers.ConnectionManager;
 import model.GameData;
 import websocket.commands.ConnectCommand;
 import org.eclipse.jetty.websocket.api.Session;
 import websocket.messages.LoadGame;
+import websocket.messages.MoveMade;
 import websocket.messages.Notification;
 import websocket.messages.ServerMessageError;
 
 import java.util.Objects;
 
 
+/**
+ * Runs WebSocket commands. Unlike the HTTP endpoints it calls the blocking GameService methods rather than the
+ * async ones: every command already runs on one of WsRequestHandler's game lanes, which are virtual threads off
+ * Jetty's pool, and a lane has to finish a command before starting that game's next one anyway.
+ */
 public class WsRequestService {
 
     private final ConnectionManager connectionManager;
 //    private final SQLGameDAO sqlGameDAO;
     private final GameService gameService;
-    private final Gson gson = new Gson();
-    private final SQLWsDAO sqlWsDAO = new SQLWsDAO();
 
     public WsRequestService(ConnectionManager connectionManager, GameService gameService) {
         this.gameService = gameService;
         this.connectionManager = connectionManager;
     }
 
-    public SQLWsDAO getSqlWsDAO() {
-        return sqlWsDAO;
-    }
-
     public GameService getGameService() {
         return gameService;
     }
@@ -43,40 +41,42 @@ public class WsRequestService {
         String message = username + " joined the game as " + teamColor;
         // maybe check the DAO to see if the username shows up?
         Notification notification = new Notification(message);
-        String serializedNotification = gson.toJson(notification);
         try {
-            connectionManager.broadcast(session, command.getGameID(), serializedNotification);
+            connectionManager.broadcast(session, command.getGameID(), notification);
         }
         catch (Exception e) {
             ServerMessageError error = new ServerMessageError(e.getMessage());
-            connectionManager.notifySingleSession(session, command.getGameID(), gson.toJson(error));
+            connectionManager.notifySingleSession(session, command.getGameID(), error);
         }
     }
 
-    public void loadGame(Session session, int gameID) throws Exception {
+    public void loadGame(Session session, String username, int gameID) throws Exception {
         try {
-            ChessGame game = gameService.getGame(gameID).game();
+            // observers can make do with a replica's copy, players need the latest board to move from
+            GameData gameData = gameService.viewGame(gameID);
+            if (Objects.equals(username, gameData.whiteUsername()) || Objects.equals(username, gameData.blackUsername())) {
+                gameData = gameService.getGame(gameID);
+            }
+            ChessGame game = gameData.game();
             LoadGame loadGame = new LoadGame(game);
             // Add a second try / catch block here?
-            connectionManager.notifySingleSession(session, gameID, gson.toJson(loadGame));
+            connectionManager.sendLoadGame(session, gameID, loadGame);
         }
         catch (Exception ex) {
             ServerMessageError error = new ServerMessageError(ex.getMessage());
-            connectionManager.notifySingleSession(session, gameID, gson.toJson(error));
+            connectionManager.notifySingleSession(session, gameID, error);
         }
     }
 
     public void leaveGame(Session session, String username, int gameID) throws Exception {
         try {
-            sqlWsDAO.removeUser(gameID, username);
-            System.out.println("Just after the sql Remove");
+            gameService.removePlayer(gameID, username);
             Notification notification = new Notification(username + " left the game");
-            connectionManager.broadcast(session, gameID, gson.toJson(notification));
-            System.out.println("Should have been notified");
+            connectionManager.broadcast(session, gameID, notification);
         }
         catch (Exception e) {
             ServerMessageError error = new ServerMessageError(e.getMessage());
-            connectionManager.notifySingleSession(session, gameID, gson.toJson(error));
+            connectionManager.notifySingleSession(session, gameID, error);
         }
     }
 
@@ -88,24 +88,24 @@ public class WsRequestService {
             // if an observer tries to resign, send an error and fail
             if (!Objects.equals(username, gameData.whiteUsername()) && !Objects.equals(username, gameData.blackUsername())) {
                 ServerMessageError error = new ServerMessageError("Unable to resign as an observer");
-                connectionManager.notifySingleSession(session, gameID, gson.toJson(error));
+                connectionManager.notifySingleSession(session, gameID, error);
                 return;
             }
 
             // if someone tries to resign after the game is already over, send an error and fail
             if (game.getIsFinished()) {
                 ServerMessageError error = new ServerMessageError("Unable to resign once the game is over");
-                connectionManager.notifySingleSession(session, gameID, gson.toJson(error));
+                connectionManager.notifySingleSession(session, gameID, error);
                 return;
             }
 
             markGameAsFinished(gameID, game);
             Notification notification = new Notification(username + " has resigned!");
-            connectionManager.broadcast(null, gameID, gson.toJson(notification));
+            connectionManager.broadcast(null, gameID, notification);
         }
         catch (Exception ex) {
             ServerMessageError error = new ServerMessageError(ex.getMessage());
-            connectionManager.notifySingleSession(session, gameID, gson.toJson(error));
+            connectionManager.notifySingleSession(session, gameID, error);
         }
     }
 
@@ -117,14 +117,14 @@ public class WsRequestService {
             // if an observer tries to make a move, send an error and fail
             if (!Objects.equals(username, gameData.whiteUsername()) && !Objects.equals(username, gameData.blackUsername())) {
                 ServerMessageError error = new ServerMessageError("Unable to make moves as an observer");
-                connectionManager.notifySingleSession(session, gameID, gson.toJson(error));
+                connectionManager.notifySingleSession(session, gameID, error);
                 return;
             }
 
             // if the game is done, don't allow moves
             if (game.getIsFinished()) {
                 ServerMessageError error = new ServerMessageError("Unable to make moves once game is over");
-                connectionManager.notifySingleSession(session, gameID, gson.toJson(error));
+                connectionManager.notifySingleSession(session, gameID, error);
                 return;
             }
 
@@ -132,66 +132,75 @@ public class WsRequestService {
             if ((game.getTeamTurn() == ChessGame.TeamColor.WHITE && gameData.blackUsername().equals(username))
                     || (game.getTeamTurn() == ChessGame.TeamColor.BLACK && gameData.whiteUsername().equals(username))) {
                 ServerMessageError error = new ServerMessageError("Unable to make moves for your opponent");
-                connectionManager.notifySingleSession(session, gameID, gson.toJson(error));
+                connectionManager.notifySingleSession(session, gameID, error);
                 return;
             }
 
             game.makeMove(move);
 
-            // send everyone the updated game
+            // send everyone the updated game, or just the move to the clients that can make it themselves
             LoadGame loadGame = new LoadGame(game);
-            connectionManager.broadcast(null, gameID, gson.toJson(loadGame));
+            MoveMade moveMade = new MoveMade(move, game.getMoveCount(), statusAfterMove(game));
+            connectionManager.broadcastMove(gameID, loadGame, moveMade);
 
             // save the game back to the database
-            sqlWsDAO.updateGame(gameID, game);
+            gameService.saveGame(gameID, game);
 
             // notify everyone of the move
             String message = username + " made the move " + move;
             Notification notification = new Notification(message);
-            connectionManager.broadcast(session, gameID, gson.toJson(notification));
+            connectionManager.broadcast(session, gameID, notification);
 
             // check for check, stalemate, and checkmate (not in that order)
             if (game.isInCheckmate(ChessGame.TeamColor.WHITE)) {
                 Notification notification1 = new Notification(gameData.whiteUsername() + " is in checkmate!");
-                connectionManager.broadcast(null, gameID, gson.toJson(notification1));
+                connectionManager.broadcast(null, gameID, notification1);
                 markGameAsFinished(gameID, game);
                 return;
             }
             else if (game.isInCheckmate(ChessGame.TeamColor.BLACK)) {
                 Notification notification1 = new Notification(gameData.blackUsername() + " is in checkmate!");
-                connectionManager.broadcast(null, gameID, gson.toJson(notification1));
+                connectionManager.broadcast(null, gameID, notification1);
                 markGameAsFinished(gameID, game);
                 return;
             }
             if (game.isInCheck(ChessGame.TeamColor.WHITE)) {
                 Notification notification1 = new Notification(gameData.whiteUsername() + " is in check!");
-                connectionManager.broadcast(null, gameID, gson.toJson(notification1));
+                connectionManager.broadcast(null, gameID, notification1);
             }
             else if (game.isInCheck(ChessGame.TeamColor.BLACK)) {
                 Notification notification1 = new Notification(gameData.blackUsername() + " is in check!");
-                connectionManager.broadcast(null, gameID, gson.toJson(notification1));
+                connectionManager.broadcast(null, gameID, notification1);
             }
             if (game.isInStalemate(ChessGame.TeamColor.WHITE)) {
                 Notification notification1 = new Notification(gameData.whiteUsername() + " is in stalemate!");
-                connectionManager.broadcast(null, gameID, gson.toJson(notification1));
+                connectionManager.broadcast(null, gameID, notification1);
                 markGameAsFinished(gameID, game);
             }
             else if (game.isInStalemate(ChessGame.TeamColor.BLACK)) {
                 Notification notification1 = new Notification(gameData.blackUsername() + " is in stalemate!");
-                connectionManager.broadcast(null, gameID, gson.toJson(notification1));
+                connectionManager.broadcast(null, gameID, notification1);
                 markGameAsFinished(gameID, game);
             }
         }
         catch (Exception ex) {
             ServerMessageError error = new ServerMessageError(ex.getMessage());
             System.out.println(ex.getMessage());
-            connectionManager.notifySingleSession(session, gameID, gson.toJson(error));
+            connectionManager.notifySingleSession(session, gameID, error);
         }
     }
 
-    public void markGameAsFinished(int gameID, ChessGame game) throws Exception {
+    private static MoveMade.Status statusAfterMove(ChessGame game) {
+        ChessGame.TeamColor toMove = game.getTeamTurn();
+        if (game.isInCheckmate(toMove)) {return MoveMade.Status.CHECKMATE;}
+        if (game.isInStalemate(toMove)) {return MoveMade.Status.STALEMATE;}
+        if (game.isInCheck(toMove)) {return MoveMade.Status.CHECK;}
+        return MoveMade.Status.NONE;
+    }
+
+        public void markGameAsFinished(int gameID, ChessGame game) throws Exception {
         game.setIsFinished(true);
-        sqlWsDAO.updateGame(gameID, game);
+        gameService.saveGame(gameID, game);
     }
 
 }
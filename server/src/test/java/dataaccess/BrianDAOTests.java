@@ -1,16 +1,29 @@
 package dataaccess;
 
 import chess.ChessGame;
+import chess.ChessGameCodec;
+import chess.ChessMove;
+import chess.ChessPosition;
+import chess.InvalidMoveException;
+import com.google.gson.Gson;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import model.*;
 import server.ResponseException;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 public class BrianDAOTests {
 
@@ -83,6 +96,22 @@ public class BrianDAOTests {
         Assertions.assertThrows(DataAccessException.class, () -> authDAO.getAuth("not abc123"));
     }
 
+    @Test
+    void idleAuthExpiresAndIsSwept() throws Exception {
+        authDAO.createAuth(new AuthData("abc123", "brian"));
+        authDAO.createAuth(new AuthData("def456", "brian"));
+        try (Connection conn = DatabaseManager.getConnection();
+             PreparedStatement ps = conn.prepareStatement(
+                     "UPDATE auths SET lastused = NOW() - INTERVAL 2 DAY WHERE authtoken = 'abc123'")) {
+            ps.executeUpdate();
+        }
+
+        Assertions.assertThrows(DataAccessException.class, () -> authDAO.getAuth("abc123"));
+        Assertions.assertEquals(1, authDAO.deleteExpired(100));
+        Assertions.assertEquals(0, authDAO.deleteExpired(100));
+        Assertions.assertEquals("brian", authDAO.getAuth("def456").username());
+    }
+
     @Test
     void successfulDeleteAuth() throws ResponseException {
         AuthData authData = new AuthData("abc123", "brian");
@@ -218,6 +247,19 @@ public class BrianDAOTests {
         Assertions.assertThrows(DataAccessException.class, () -> gameDAO.updateWhiteUsername(new JoinData("white", 1), "not brian"));
     }
 
+    @Test
+    void updateUsernameTellsTakenFromMissing() throws DataAccessException, ResponseException {
+        GameData gameData = new GameData(0, null, null, "the bestest game", new ChessGame());
+        gameDAO.createGame(gameData);
+        gameDAO.updateBlackUsername(new JoinData("black", 1), "brian");
+
+        Assertions.assertThrows(AlreadyTakenException.class, () -> gameDAO.updateBlackUsername(new JoinData("black", 1), "not brian"));
+        DataAccessException ex = Assertions.assertThrows(DataAccessException.class,
+                () -> gameDAO.updateBlackUsername(new JoinData("black", 42), "brian"));
+        Assertions.assertFalse(ex instanceof AlreadyTakenException);
+        Assertions.assertEquals("brian", gameDAO.getGame(1).blackUsername());
+    }
+
     @Test
     void successfulUpdateBlackUsername() throws DataAccessException, ResponseException {
         GameData gameData = new GameData(0, null, null, "the bestest game", new ChessGame());
@@ -246,4 +288,328 @@ public class BrianDAOTests {
         String statement = "SELECT gameid from games where gameid = ?";
         Assertions.assertThrows(DataAccessException.class, () -> tryValidSQLQuery(statement, "1"));
     }
+
+    @Test
+    void gameCodecRoundTrip() throws InvalidMoveException {
+        ChessGame game = new ChessGame();
+        game.makeMove(new ChessMove(new ChessPosition(2, 5), new ChessPosition(4, 5), null));
+        game.setIsFinished(true);
+
+        ChessGame decoded = ChessGameCodec.decode(ChessGameCodec.encode(game));
+        Assertions.assertEquals(game, decoded);
+        Assertions.assertEquals(ChessGame.TeamColor.BLACK, decoded.getTeamTurn());
+        Assertions.assertTrue(decoded.getIsFinished());
+        Assertions.assertEquals(1, decoded.getMoveCount());
+    }
+
+    @Test
+    void version1GamesStillDecode() throws InvalidMoveException {
+        ChessGame game = new ChessGame();
+        game.makeMove(new ChessMove(new ChessPosition(2, 5), new ChessPosition(4, 5), null));
+        // checking for checkmate tries moves out, which shouldn't count
+        game.isInCheckmate(ChessGame.TeamColor.BLACK);
+        Assertions.assertEquals(1, game.getMoveCount());
+
+        // a version 1 game is a version 2 game without the move count on the end
+        byte[] version1 = Arrays.copyOf(ChessGameCodec.encode(game), 34);
+        version1[0] = 1;
+        ChessGame decoded = ChessGameCodec.decode(version1);
+        Assertions.assertEquals(game, decoded);
+        Assertions.assertEquals(0, decoded.getMoveCount());
+    }
+
+    @Test
+    void unknownPieceFailsToDecode() {
+        for (int nibble : new int[] {7, 8, 15}) {
+            byte[] encoded = ChessGameCodec.encode(new ChessGame());
+            // a3 is empty in a new game, and is the high nibble of byte 2 + 8
+            encoded[10] = (byte) (nibble << 4);
+            Assertions.assertThrows(IllegalArgumentException.class, () -> ChessGameCodec.decode(encoded));
+        }
+    }
+
+    @Test
+    void gameCodecIsSmallerThanJson() {
+        ChessGame game = new ChessGame();
+        int jsonSize = new Gson().toJson(game).length();
+        int binarySize = ChessGameCodec.encode(game).length;
+        Assertions.assertTrue(binarySize * 40 < jsonSize, "binary " + binarySize + " bytes vs json " + jsonSize);
+    }
+
+    @Test
+    void updatedGameIsStoredInBinary() throws Exception {
+        GameData gameData = new GameData(0, null, null, "the bestest game", new ChessGame());
+        int gameID = gameDAO.createGame(gameData);
+        ChessGame game = new ChessGame();
+        game.makeMove(new ChessMove(new ChessPosition(2, 4), new ChessPosition(3, 4), null));
+        gameDAO.updateGame(gameID, game);
+
+        Assertions.assertEquals(game, gameDAO.getGame(gameID).game());
+    }
+
+    @Test
+    void listGameSummariesPagesAndFilters() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            gameDAO.createGame(new GameData(0, null, null, "game " + i, new ChessGame()));
+        }
+        gameDAO.updateWhiteUsername(new JoinData("white", 2), "brian");
+        gameDAO.updateWhiteUsername(new JoinData("white", 3), "brian");
+        gameDAO.updateBlackUsername(new JoinData("black", 3), "not brian");
+        ChessGame finishedGame = new ChessGame();
+        finishedGame.setIsFinished(true);
+        gameDAO.updateGame(4, finishedGame);
+
+        var page = gameDAO.listGameSummaries(new GameListQuery(2, 2, null, false, null));
+        Assertions.assertEquals(List.of(3, 4), page.stream().map(JsonFriendlyGameData::gameID).toList());
+
+        var brianGames = gameDAO.listGameSummaries(new GameListQuery(0, 0, "brian", false, null));
+        Assertions.assertEquals(List.of(2, 3), brianGames.stream().map(JsonFriendlyGameData::gameID).toList());
+
+        var openBrianGames = gameDAO.listGameSummaries(new GameListQuery(0, 0, "brian", true, null));
+        Assertions.assertEquals(List.of(2), openBrianGames.stream().map(JsonFriendlyGameData::gameID).toList());
+
+        var finishedGames = gameDAO.listGameSummaries(new GameListQuery(0, 0, null, false, true));
+        Assertions.assertEquals(List.of(4), finishedGames.stream().map(JsonFriendlyGameData::gameID).toList());
+    }
+
+    @Test
+    void pooledConnectionsAreReturnedOnClose() throws Exception {
+        // more round trips than the pool has connections, so this only passes if close() hands them back
+        for (int i = 0; i < 50; i++) {
+            Assertions.assertThrows(DataAccessException.class, () -> authDAO.getAuth("not a real token"));
+        }
+
+        Connection conn = DatabaseManager.getConnection();
+        conn.close();
+        Assertions.assertTrue(conn.isClosed());
+        Assertions.assertThrows(SQLException.class, () -> conn.prepareStatement("SELECT 1"));
+    }
+
+    @Test
+    void readsGoToACaughtUpReplicaAndSkipADeadOne() throws Exception {
+        // the same server under another name stands in for a replica, it isn't replicating so it counts as caught up
+        DatabaseManager.useReplicas("127.0.0.1:1, localhost:3306", 2, 2);
+        try {
+            for (int i = 0; i < 4; i++) {
+                try (Connection conn = DatabaseManager.getReadConnection()) {
+                    Assertions.assertTrue(conn.getMetaData().getURL().contains("localhost"));
+                }
+            }
+
+            userDAO.createUser(new UserData("brian", "hashed", "me@mail.com"));
+            authDAO.createAuth(new AuthData("abc123", "brian"));
+            int gameID = gameDAO.createGame(new GameData(0, null, null, "the bestest game", null));
+            Assertions.assertEquals("me@mail.com", userDAO.getUser("brian").email());
+            Assertions.assertEquals("brian", authDAO.getAuth("abc123").username());
+            Assertions.assertEquals("the bestest game", gameDAO.viewGame(gameID).gameName());
+            Assertions.assertEquals(1, gameDAO.listGameSummaries(new GameListQuery(0, 0, null, false, null)).size());
+            Assertions.assertThrows(DataAccessException.class, () -> userDAO.getUser("notbrian"));
+        } finally {
+            DatabaseManager.useReplicas(null, 0, 0);
+        }
+    }
+
+    @Test
+    void migrationsFinishAHalfAppliedStep() throws Exception {
+        // like migration 5 failing after its ALTER TABLE
+        String[] statements = {
+                "DROP INDEX auths_lastused ON auths",
+                "DELETE FROM schema_version WHERE version = 5"
+        };
+        try (Connection conn = DatabaseManager.getConnection()) {
+            for (String statement : statements) {
+                try (PreparedStatement ps = conn.prepareStatement(statement)) {
+                    ps.executeUpdate();
+                }
+            }
+        }
+
+        new SchemaMigrator().migrate();
+        tryValidSQLQuery("SELECT INDEX_NAME FROM information_schema.STATISTICS " +
+                "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'auths' AND INDEX_NAME = ?", "auths_lastused");
+        tryValidSQLQuery("SELECT version FROM schema_version WHERE version = ?", "5");
+        new SchemaMigrator().migrate();
+    }
+
+    @Test
+    void shardedGamesSpreadOutAndListInOrder() throws Exception {
+        DatabaseManager.useShards("127.0.0.1:3306/chess_shard_a, 127.0.0.1:3306/chess_shard_b", 2);
+        try {
+            DatabaseManager.createDatabase();
+            new SchemaMigrator().migrate();
+            ShardedGameDAO shardedDAO = new ShardedGameDAO();
+            shardedDAO.clear();
+
+            List<Integer> gameIDs = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                gameIDs.add(shardedDAO.createGame(new GameData(0, null, null, "game " + i, null)));
+            }
+            Assertions.assertEquals(20, gameIDs.stream().distinct().count());
+            // both shards got some of them
+            Assertions.assertEquals(2, gameIDs.stream().map(shardedDAO::shardFor).distinct().count());
+
+            shardedDAO.updateWhiteUsername(new JoinData("WHITE", gameIDs.get(3)), "brian");
+            Assertions.assertEquals("brian", shardedDAO.getGame(gameIDs.get(3)).whiteUsername());
+            Assertions.assertThrows(AlreadyTakenException.class,
+                    () -> shardedDAO.updateWhiteUsername(new JoinData("WHITE", gameIDs.get(3)), "notbrian"));
+
+            // pages come back in id order no matter which shard each game is on
+            List<JsonFriendlyGameData> firstPage = List.copyOf(
+                    shardedDAO.listGameSummaries(new GameListQuery(0, 5, null, false, null)));
+            Assertions.assertEquals(gameIDs.subList(0, 5), firstPage.stream().map(JsonFriendlyGameData::gameID).toList());
+            List<JsonFriendlyGameData> rest = List.copyOf(
+                    shardedDAO.listGameSummaries(new GameListQuery(firstPage.get(4).gameID(), 0, null, false, null)));
+            Assertions.assertEquals(gameIDs.subList(5, 20), rest.stream().map(JsonFriendlyGameData::gameID).toList());
+            Assertions.assertEquals(20, shardedDAO.listGames().size());
+
+            shardedDAO.clear();
+            Assertions.assertTrue(shardedDAO.listGames().isEmpty());
+        } finally {
+            DatabaseManager.useShards(null, 0);
+        }
+    }
+
+    @Test
+    void failedSnapshotsKeepTheirJournalEntries(@TempDir Path directory) throws Exception {
+        MemoryStore store = MemoryStore.open(directory, 3600);
+        MemoryUserDAO memoryUserDAO = new MemoryUserDAO(store);
+        // the snapshot can't be written while a directory is in the way
+        Files.createDirectory(directory.resolve("snapshot.json.tmp"));
+        memoryUserDAO.createUser(new UserData("brian", "hashed", "me@mail.com"));
+        Assertions.assertThrows(IOException.class, store::snapshot);
+        memoryUserDAO.createUser(new UserData("bob", "hashed", "bob@mail.com"));
+        Assertions.assertThrows(IOException.class, store::snapshot);
+
+        MemoryStore reopened = MemoryStore.open(directory, 3600);
+        Assertions.assertEquals("me@mail.com", new MemoryUserDAO(reopened).getUser("brian").email());
+        Assertions.assertEquals("bob@mail.com", new MemoryUserDAO(reopened).getUser("bob").email());
+
+        // once the snapshot goes through, nothing is left to replay
+        Files.delete(directory.resolve("snapshot.json.tmp"));
+        store.close();
+        Assertions.assertFalse(Files.exists(directory.resolve("journal.old.log")));
+        Assertions.assertEquals(0, Files.size(directory.resolve("journal.log")));
+    }
+
+    @Test
+    void memoryStoreSurvivesARestart(@TempDir Path directory) throws Exception {
+        MemoryStore store = MemoryStore.open(directory, 3600);
+        MemoryGameDAO memoryGameDAO = new MemoryGameDAO(store);
+        new MemoryUserDAO(store).createUser(new UserData("brian", "hashed", "me@mail.com"));
+        new MemoryAuthDAO(store, AuthDAO.DEFAULT_IDLE_TIMEOUT).createAuth(new AuthData("abc123", "brian"));
+        int gameID = memoryGameDAO.createGame(new GameData(0, null, null, "the bestest game", null));
+        memoryGameDAO.updateWhiteUsername(new JoinData("WHITE", gameID), "brian");
+        store.snapshot();
+
+        // these only make it into the journal, like a crash before the next snapshot
+        ChessGame game = new ChessGame();
+        game.makeMove(new ChessMove(new ChessPosition(2, 5), new ChessPosition(4, 5), null));
+        memoryGameDAO.updateGame(gameID, game);
+        memoryGameDAO.createGame(new GameData(0, null, null, "another game", null));
+
+        MemoryStore reopened = MemoryStore.open(directory, 3600);
+        Assertions.assertEquals("me@mail.com", new MemoryUserDAO(reopened).getUser("brian").email());
+        Assertions.assertEquals("brian",
+                new MemoryAuthDAO(reopened, AuthDAO.DEFAULT_IDLE_TIMEOUT).getAuth("abc123").username());
+        GameData reloaded = new MemoryGameDAO(reopened).getGame(gameID);
+        Assertions.assertEquals("brian", reloaded.whiteUsername());
+        Assertions.assertEquals(game, reloaded.game());
+        Assertions.assertEquals(gameID + 2, new MemoryGameDAO(reopened).createGame(new GameData(0, null, null, "x", null)));
+        reopened.close();
+        store.close();
+    }
+
+    @Test
+    void memoryGamesListByFinished(@TempDir Path directory) throws Exception {
+        MemoryStore store = MemoryStore.open(directory, 3600);
+        MemoryGameDAO memoryGameDAO = new MemoryGameDAO(store);
+        memoryGameDAO.createGame(new GameData(0, null, null, "still going", null));
+        int finishedID = memoryGameDAO.createGame(new GameData(0, null, null, "all done", null));
+        ChessGame finishedGame = new ChessGame();
+        finishedGame.setIsFinished(true);
+        memoryGameDAO.updateGame(finishedID, finishedGame);
+        // taking a seat keeps the flag
+        memoryGameDAO.updateBlackUsername(new JoinData("BLACK", finishedID), "brian");
+
+        GameListQuery finishedOnly = new GameListQuery(0, 0, null, false, true);
+        Assertions.assertEquals(List.of(finishedID), memoryGameDAO.listGameSummaries(finishedOnly).stream()
+                .map(JsonFriendlyGameData::gameID).toList());
+        store.close();
+
+        MemoryStore reopened = MemoryStore.open(directory, 3600);
+        Assertions.assertEquals(List.of(finishedID), new MemoryGameDAO(reopened).listGameSummaries(finishedOnly)
+                .stream().map(JsonFriendlyGameData::gameID).toList());
+        reopened.close();
+    }
+
+    @Test
+    void mappedStoreSurvivesARestart(@TempDir Path directory) throws Exception {
+        MappedStore store = MappedStore.open(directory);
+        MappedGameDAO mappedGameDAO = new MappedGameDAO(store);
+        new MappedUserDAO(store).createUser(new UserData("brian", "hashed", "me@mail.com"));
+        new MappedAuthDAO(store, AuthDAO.DEFAULT_IDLE_TIMEOUT).createAuth(new AuthData("abc123", "brian"));
+        // enough games that the file has to grow past its first mapping
+        for (int i = 0; i < 1100; i++) {
+            mappedGameDAO.createGame(new GameData(0, null, null, "game " + i, null));
+        }
+        mappedGameDAO.updateBlackUsername(new JoinData("BLACK", 1050), "brian");
+        Assertions.assertThrows(AlreadyTakenException.class,
+                () -> mappedGameDAO.updateBlackUsername(new JoinData("BLACK", 1050), "not brian"));
+        Assertions.assertThrows(DataAccessException.class,
+                () -> mappedGameDAO.updateBlackUsername(new JoinData("BLACK", 5000), "brian"));
+        ChessGame game = new ChessGame();
+        game.makeMove(new ChessMove(new ChessPosition(2, 5), new ChessPosition(4, 5), null));
+        mappedGameDAO.updateGame(1050, game);
+        store.close();
+
+        // a record cut off partway, like the process dying mid-write
+        Files.write(directory.resolve("records.log"), new byte[]{1, 0, 9, 'b'}, StandardOpenOption.APPEND);
+
+        MappedStore reopened = MappedStore.open(directory);
+        MappedGameDAO reopenedGameDAO = new MappedGameDAO(reopened);
+        Assertions.assertEquals("me@mail.com", new MappedUserDAO(reopened).getUser("brian").email());
+        Assertions.assertEquals("brian",
+                new MappedAuthDAO(reopened, AuthDAO.DEFAULT_IDLE_TIMEOUT).getAuth("abc123").username());
+        GameData reloaded = reopenedGameDAO.getGame(1050);
+        Assertions.assertEquals("brian", reloaded.blackUsername());
+        Assertions.assertEquals(game, reloaded.game());
+        Assertions.assertEquals(List.of(1050), reopenedGameDAO.listGameSummaries(new GameListQuery(0, 0, "brian", false, null))
+                .stream().map(JsonFriendlyGameData::gameID).toList());
+        Assertions.assertEquals(1101, reopenedGameDAO.createGame(new GameData(0, null, null, "x", null)));
+        new MappedUserDAO(reopened).createUser(new UserData("new user", "hashed", null));
+        reopened.close();
+    }
+
+    @Test
+    void mappedStoreCompactsWhileRunning(@TempDir Path directory) throws Exception {
+        MappedStore store = MappedStore.open(directory);
+        MappedAuthDAO mappedAuthDAO = new MappedAuthDAO(store, AuthDAO.DEFAULT_IDLE_TIMEOUT);
+        mappedAuthDAO.createAuth(new AuthData("keeper", "brian"));
+        for (int i = 0; i < 2000; i++) {
+            mappedAuthDAO.createAuth(new AuthData("token" + i, "brian"));
+            mappedAuthDAO.deleteAuth("token" + i);
+        }
+        // 4001 records written, but the log was rewritten along the way, so far fewer are left
+        Assertions.assertTrue(Files.size(directory.resolve("records.log")) < 1025 * 40,
+                "records.log is " + Files.size(directory.resolve("records.log")) + " bytes");
+        store.close();
+
+        MappedStore reopened = MappedStore.open(directory);
+        MappedAuthDAO reopenedAuthDAO = new MappedAuthDAO(reopened, AuthDAO.DEFAULT_IDLE_TIMEOUT);
+        Assertions.assertEquals("brian", reopenedAuthDAO.getAuth("keeper").username());
+        Assertions.assertThrows(DataAccessException.class, () -> reopenedAuthDAO.getAuth("token1999"));
+        reopened.close();
+    }
+
+    @Test
+    void mappedStoreRejectsNamesTooLongForASlot(@TempDir Path directory) throws Exception {
+        MappedStore store = MappedStore.open(directory);
+        String tooLong = "x".repeat(65);
+        Assertions.assertThrows(DataAccessException.class,
+                () -> new MappedUserDAO(store).createUser(new UserData(tooLong, "hashed", null)));
+        Assertions.assertThrows(DataAccessException.class,
+                () -> new MappedGameDAO(store).createGame(new GameData(0, null, null, tooLong, null)));
+        new MappedUserDAO(store).createUser(new UserData("x".repeat(64), "hashed", null));
+        store.close();
+    }
 }
@@ -0,0 +1,496 @@
+package handlers;
+
+import chess.ChessGame;
+import chess.ChessMove;
+import chess.ChessPiece;
+import chess.ChessPosition;
+import com.google.gson.Gson;
+import dataaccess.MemoryAuthDAO;
+import dataaccess.MemoryGameDAO;
+import model.AuthData;
+import model.GameData;
+import model.JoinData;
+import org.eclipse.jetty.websocket.api.RemoteEndpoint;
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.WriteCallback;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import websocket.BinaryProtocol;
+import websocket.MessageTypeAdapterFactory;
+import websocket.commands.ConnectCommand;
+import websocket.commands.MakeMoveCommand;
+import websocket.commands.UserGameCommand;
+import websocket.messages.LoadGame;
+import websocket.messages.MoveMade;
+import websocket.messages.Notification;
+import websocket.messages.ServerMessage;
+
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+public class BrianHandlerTests {
+
+    @Test
+    void broadcastsDoNotWaitOnSlowSessions() {
+        ConnectionManager connectionManager = new ConnectionManager();
+        List<Object> slowFrames = new ArrayList<>();
+        List<WriteCallback> unfinished = new ArrayList<>();
+        Session slow = fakeSession(slowFrames::add, unfinished::add);
+        List<Object> fastFrames = new ArrayList<>();
+        Session fast = fakeSession(fastFrames::add);
+        connectionManager.add(1, slow);
+        connectionManager.add(1, fast);
+
+        for (int i = 0; i < 3; i++) {
+            connectionManager.broadcast(null, 1, new Notification("message " + i));
+        }
+        // the slow session's first send is still going, so the rest wait in its outbox instead of holding up
+        // the broadcast or the other session
+        Assertions.assertEquals(1, slowFrames.size());
+        Assertions.assertEquals(3, fastFrames.size());
+        // serialized once for everyone
+        Assertions.assertSame(fastFrames.getFirst(), slowFrames.getFirst());
+
+        unfinished.removeFirst().writeSuccess();
+        unfinished.removeFirst().writeSuccess();
+        Assertions.assertEquals(fastFrames, slowFrames);
+    }
+
+    @Test
+    void outboxSendsInOrderAndKeepsOnlyTheLatestBoard() {
+        List<Object> frames = new ArrayList<>();
+        List<WriteCallback> unfinished = new ArrayList<>();
+        SessionOutbox outbox = new SessionOutbox(fakeSession(frames::add, unfinished::add));
+        outbox.offer("first", false);
+        outbox.offer("old board", true);
+        outbox.offer("second", false);
+        outbox.offer("new board", true);
+        outbox.offer("third", false);
+        Assertions.assertEquals(List.of("first"), frames);
+
+        while (!unfinished.isEmpty()) {
+            unfinished.removeFirst().writeSuccess();
+        }
+        Assertions.assertEquals(List.of("first", "second", "new board", "third"), frames);
+    }
+
+    @Test
+    void outboxDisconnectsAtMaxQueued() {
+        AtomicInteger closes = new AtomicInteger();
+        List<WriteCallback> unfinished = new ArrayList<>();
+        SessionOutbox outbox = new SessionOutbox(countingCloses(fakeSession(frame -> {}, unfinished::add), closes));
+        // the first one goes out and never finishes, the rest queue up behind it
+        for (int i = 0; i < SessionOutbox.MAX_QUEUED; i++) {
+            outbox.offer("message " + i, false);
+        }
+        Assertions.assertEquals(0, closes.get());
+        outbox.offer("one too many", false);
+        Assertions.assertEquals(1, closes.get());
+
+        // nothing else goes out once it's been disconnected
+        unfinished.removeFirst().writeSuccess();
+        outbox.offer("after", false);
+        Assertions.assertTrue(unfinished.isEmpty());
+    }
+
+    @Test
+    void outboxDisconnectsAfterTheGracePeriod() {
+        AtomicLong now = new AtomicLong(1000);
+        AtomicInteger closes = new AtomicInteger();
+        List<WriteCallback> unfinished = new ArrayList<>();
+        SessionOutbox outbox = new SessionOutbox(countingCloses(fakeSession(frame -> {}, unfinished::add), closes),
+                now::get);
+        for (int i = 0; i <= SessionOutbox.HIGH_WATER_MARK + 1; i++) {
+            outbox.offer("message " + i, false);
+        }
+        now.addAndGet(SessionOutbox.GRACE_MILLIS - 1);
+        outbox.offer("still within the grace period", false);
+        Assertions.assertEquals(0, closes.get());
+
+        // catching up to the high-water mark starts the grace period over
+        for (int i = 0; i < 3; i++) {
+            unfinished.removeFirst().writeSuccess();
+        }
+        now.addAndGet(SessionOutbox.GRACE_MILLIS);
+        outbox.offer("back at the mark", false);
+        outbox.offer("over again", false);
+        Assertions.assertEquals(0, closes.get());
+        now.addAndGet(SessionOutbox.GRACE_MILLIS);
+        outbox.offer("over for too long", false);
+        Assertions.assertEquals(1, closes.get());
+    }
+
+    @Test
+    void outboxClosesWhenASendThrows() {
+        AtomicInteger attempts = new AtomicInteger();
+        SessionOutbox outbox = new SessionOutbox(fakeSession(frame -> {}, callback -> {
+            attempts.incrementAndGet();
+            throw new IllegalStateException("session already closed");
+        }));
+        outbox.offer("first", false);
+        outbox.offer("second", false);
+        Assertions.assertEquals(1, attempts.get());
+    }
+
+    @Test
+    void removedSessionsAreNotBroughtBackBySends() {
+        ConnectionManager connectionManager = new ConnectionManager();
+        AtomicInteger sent = new AtomicInteger();
+        Session session = fakeSession(sent);
+        connectionManager.open(session);
+        connectionManager.notifySingleSession(session, 1, new Notification("before joining"));
+        connectionManager.add(1, session);
+        connectionManager.removeSession(session);
+
+        // a command still running for the session when it closed
+        connectionManager.notifySingleSession(session, 1, new Notification("too late"));
+        connectionManager.useBinary(session);
+        connectionManager.broadcast(null, 1, new Notification("also too late"));
+        Assertions.assertEquals(1, sent.get());
+        Assertions.assertNull(connectionManager.removeSession(session));
+        Assertions.assertTrue(connectionManager.connections.isEmpty());
+    }
+
+    @Test
+    void spectatorsChurnDuringBroadcasts() throws Exception {
+        ConnectionManager connectionManager = new ConnectionManager();
+        int gameID = 1;
+        int broadcasts = 20;
+        AtomicInteger stayerMessages = new AtomicInteger();
+        List<Session> stayers = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            Session stayer = fakeSession(stayerMessages);
+            stayers.add(stayer);
+            connectionManager.add(gameID, stayer);
+        }
+
+        // spectators join and leave from a few threads while the game keeps broadcasting
+        AtomicInteger churnMessages = new AtomicInteger();
+        List<CompletableFuture<Void>> churners = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            churners.add(CompletableFuture.runAsync(() -> {
+                for (int i = 0; i < 50; i++) {
+                    Session spectator = fakeSession(churnMessages);
+                    connectionManager.add(gameID, spectator);
+                    if (i % 2 == 0) {
+                        connectionManager.remove(gameID, spectator);
+                    } else {
+                        connectionManager.removeSession(spectator);
+                    }
+                }
+            }));
+        }
+        for (int i = 0; i < broadcasts; i++) {
+            connectionManager.broadcast(null, gameID, new Notification("message " + i));
+        }
+        CompletableFuture.allOf(churners.toArray(new CompletableFuture[0])).get(30, TimeUnit.SECONDS);
+
+        Assertions.assertEquals(stayers.size() * broadcasts, stayerMessages.get());
+        Assertions.assertEquals(stayers.size(), connectionManager.connections.get(gameID).size());
+        for (Session stayer : stayers) {
+            connectionManager.removeSession(stayer);
+        }
+        Assertions.assertTrue(connectionManager.connections.isEmpty());
+    }
+
+    @Test
+    void broadcastsReachSessionsOnOtherNodes() throws Exception {
+        InProcessBackplane sharedBackplane = new InProcessBackplane();
+        ConnectionManager nodeA = new ConnectionManager(sharedBackplane);
+        ConnectionManager nodeB = new ConnectionManager(sharedBackplane);
+        AtomicInteger onA = new AtomicInteger();
+        AtomicInteger onB = new AtomicInteger();
+        nodeA.add(1, fakeSession(onA));
+        nodeB.add(1, fakeSession(onB));
+        nodeB.add(2, fakeSession(onB));
+        nodeA.broadcast(null, 1, new Notification("hello"));
+        nodeA.broadcastMove(1, new LoadGame(new ChessGame()), someMove());
+        // each node hears its own broadcast once, and only game 1's sessions hear it
+        Assertions.assertEquals(2, onA.get());
+        Assertions.assertEquals(2, onB.get());
+
+        byte[] secret = "a backplane secret".getBytes();
+        try (TcpBackplane listening = new TcpBackplane(null, 0, null, secret);
+             TcpBackplane sending = new TcpBackplane(null, 0, "localhost:" + listening.port(), secret);
+             TcpBackplane intruder = new TcpBackplane(null, 0, "localhost:" + listening.port(),
+                     "not the backplane secret".getBytes())) {
+            ConnectionManager nodeC = new ConnectionManager(sending);
+            ConnectionManager nodeD = new ConnectionManager(listening);
+            AtomicInteger onD = new AtomicInteger();
+            nodeD.add(1, fakeSession(onD));
+            // a peer with the wrong secret is dropped before anything it sends is read
+            new ConnectionManager(intruder).broadcast(null, 1, new Notification("let me in"));
+            nodeC.broadcast(null, 1, new Notification("hello over tcp"));
+            nodeC.broadcastMove(1, new LoadGame(new ChessGame()), someMove());
+            long deadline = System.currentTimeMillis() + 5_000;
+            while (onD.get() < 2 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            Assertions.assertEquals(2, onD.get());
+            // the intruder's event would have arrived by now
+            Thread.sleep(200);
+            Assertions.assertEquals(2, onD.get());
+        }
+    }
+
+    @Test
+    void binaryProtocolRoundTrip() {
+        ChessMove promotion = new ChessMove(new ChessPosition(7, 1), new ChessPosition(8, 2),
+                ChessPiece.PieceType.KNIGHT);
+        MakeMoveCommand makeMove = new MakeMoveCommand("token", 300, promotion, "WHITE");
+        MakeMoveCommand decodedMove = (MakeMoveCommand) BinaryProtocol.decodeCommand(
+                ByteBuffer.wrap(BinaryProtocol.encodeCommand(makeMove)));
+        Assertions.assertEquals(makeMove, decodedMove);
+        Assertions.assertEquals(promotion, decodedMove.getMove());
+        Assertions.assertEquals("WHITE", decodedMove.getTeamColor());
+
+        ConnectCommand connect = new ConnectCommand(UserGameCommand.CommandType.CONNECT, "token", 7, null, true);
+        ConnectCommand decodedConnect = (ConnectCommand) BinaryProtocol.decodeCommand(
+                ByteBuffer.wrap(BinaryProtocol.encodeCommand(connect)));
+        Assertions.assertTrue(decodedConnect.wantsMoveUpdates());
+        Assertions.assertNull(decodedConnect.getTeamColor());
+
+        ChessGame game = new ChessGame();
+        LoadGame decodedGame = (LoadGame) BinaryProtocol.decodeMessage(
+                ByteBuffer.wrap(BinaryProtocol.encodeMessage(new LoadGame(game))));
+        Assertions.assertEquals(game, decodedGame.getGame());
+        MoveMade moveMade = someMove();
+        MoveMade decodedMoveMade = (MoveMade) BinaryProtocol.decodeMessage(
+                ByteBuffer.wrap(BinaryProtocol.encodeMessage(moveMade)));
+        Assertions.assertEquals(moveMade.getMove(), decodedMoveMade.getMove());
+        Assertions.assertEquals(moveMade.getMoveCount(), decodedMoveMade.getMoveCount());
+        Assertions.assertEquals(moveMade.getStatus(), decodedMoveMade.getStatus());
+        Notification decodedNotification = (Notification) BinaryProtocol.decodeMessage(
+                ByteBuffer.wrap(BinaryProtocol.encodeMessage(new Notification("brian moved ♞"))));
+        Assertions.assertEquals("brian moved ♞", decodedNotification.getMessage());
+
+        byte[] cutShort = Arrays.copyOf(BinaryProtocol.encodeCommand(makeMove), 4);
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> BinaryProtocol.decodeCommand(ByteBuffer.wrap(cutShort)));
+    }
+
+    @Test
+    void jsonDecodesStraightToTheSubclass() {
+        Gson gson = MessageTypeAdapterFactory.newGson();
+        MakeMoveCommand makeMove = new MakeMoveCommand("token", 3, someMove().getMove(), "BLACK");
+        UserGameCommand decoded = gson.fromJson(gson.toJson(makeMove), UserGameCommand.class);
+        MakeMoveCommand decodedMove = Assertions.assertInstanceOf(MakeMoveCommand.class, decoded);
+        Assertions.assertEquals(makeMove, decodedMove);
+        Assertions.assertEquals(makeMove.getMove(), decodedMove.getMove());
+
+        String connect = "{\"teamColor\":\"WHITE\",\"moveUpdates\":true,\"commandType\":\"CONNECT\","
+                + "\"authToken\":\"token\",\"gameID\":3,\"somethingNew\":[1,2]}";
+        ConnectCommand decodedConnect = Assertions.assertInstanceOf(ConnectCommand.class,
+                gson.fromJson(connect, UserGameCommand.class));
+        Assertions.assertTrue(decodedConnect.wantsMoveUpdates());
+        Assertions.assertEquals("WHITE", decodedConnect.getTeamColor());
+
+        // written as a ServerMessage, it still has to come out with its game
+        ServerMessage loadGame = new LoadGame(new ChessGame());
+        LoadGame decodedGame = Assertions.assertInstanceOf(LoadGame.class,
+                gson.fromJson(gson.toJson(loadGame, ServerMessage.class), ServerMessage.class));
+        Assertions.assertEquals(new ChessGame(), decodedGame.getGame());
+        Notification decodedNotification = Assertions.assertInstanceOf(Notification.class,
+                gson.fromJson(gson.toJson(new Notification("hi")), ServerMessage.class));
+        Assertions.assertEquals("hi", decodedNotification.getMessage());
+    }
+
+    @Test
+    void oneCommandsMessagesGoOutAsOneBinaryFrame() {
+        ConnectionManager connectionManager = new ConnectionManager(new InProcessBackplane(), true);
+        List<Object> binaryFrames = new ArrayList<>();
+        List<Object> textFrames = new ArrayList<>();
+        Session binarySession = fakeSession(binaryFrames::add);
+        Session textSession = fakeSession(textFrames::add);
+        connectionManager.add(1, binarySession);
+        connectionManager.add(1, textSession);
+        connectionManager.useBinary(binarySession);
+
+        connectionManager.beginBatch();
+        try {
+            connectionManager.broadcastMove(1, new LoadGame(new ChessGame()), someMove());
+            connectionManager.broadcast(null, 1, new Notification("brian made a move"));
+            connectionManager.broadcast(null, 1, new Notification("brian is in check!"));
+            Assertions.assertTrue(binaryFrames.isEmpty());
+        } finally {
+            connectionManager.endBatch();
+        }
+
+        Assertions.assertEquals(1, binaryFrames.size());
+        List<ServerMessage> batched = BinaryProtocol.decodeMessages((ByteBuffer) binaryFrames.getFirst());
+        Assertions.assertEquals(3, batched.size());
+        Assertions.assertInstanceOf(LoadGame.class, batched.getFirst());
+        Assertions.assertEquals("brian is in check!", ((Notification) batched.get(2)).getMessage());
+        // JSON clients expect one message per frame, so they aren't batched
+        Assertions.assertEquals(3, textFrames.size());
+
+        // outside a batch everything goes straight out
+        connectionManager.broadcast(null, 1, new Notification("hi"));
+        Assertions.assertEquals(2, binaryFrames.size());
+    }
+
+    @Test
+    void eachGamesCommandsRunInOrder() throws Exception {
+        MemoryAuthDAO authDAO = new MemoryAuthDAO();
+        authDAO.createAuth(new AuthData("white token", "brian"));
+        authDAO.createAuth(new AuthData("black token", "bob"));
+        MemoryGameDAO gameDAO = new MemoryGameDAO();
+        int gameID = gameDAO.createGame(new GameData(0, null, null, "game", null));
+        gameDAO.updateWhiteUsername(new JoinData("WHITE", gameID), "brian");
+        gameDAO.updateBlackUsername(new JoinData("BLACK", gameID), "bob");
+        WsRequestHandler handler = newHandler(authDAO, gameDAO, 4);
+
+        // white's first send holds up the lane, so everything after it queues behind it
+        CountDownLatch release = new CountDownLatch(1);
+        List<Object> frames = Collections.synchronizedList(new ArrayList<>());
+        Session white = fakeSession(frames::add, callback -> {
+            awaitQuietly(release);
+            callback.writeSuccess();
+        });
+        Session black = fakeSession(frames::add);
+        handler.submit(white, new ConnectCommand(UserGameCommand.CommandType.CONNECT, "white token", gameID,
+                "WHITE", false));
+        handler.submit(black, new ConnectCommand(UserGameCommand.CommandType.CONNECT, "black token", gameID,
+                "BLACK", false));
+        ChessGame expected = new ChessGame();
+        int[][] moves = {{2, 5, 4, 5}, {7, 5, 5, 5}, {1, 7, 3, 6}, {8, 2, 6, 3}, {1, 6, 4, 3}, {8, 7, 6, 6}};
+        for (int i = 0; i < moves.length; i++) {
+            ChessMove move = new ChessMove(new ChessPosition(moves[i][0], moves[i][1]),
+                    new ChessPosition(moves[i][2], moves[i][3]), null);
+            expected.makeMove(move);
+            boolean whitesTurn = i % 2 == 0;
+            handler.submit(whitesTurn ? white : black, new MakeMoveCommand(
+                    whitesTurn ? "white token" : "black token", gameID, move, whitesTurn ? "WHITE" : "BLACK"));
+        }
+        release.countDown();
+
+        // any move run out of turn would have failed and left the game somewhere else
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (!gameDAO.getGame(gameID).game().equals(expected) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assertions.assertEquals(expected, gameDAO.getGame(gameID).game());
+        synchronized (frames) {
+            for (Object frame : frames) {
+                Assertions.assertFalse(((String) frame).contains("\"ERROR\""), (String) frame);
+            }
+        }
+        handler.shutdown();
+    }
+
+    @Test
+    void aSlowGameDoesNotHoldUpOtherLanes() throws Exception {
+        MemoryAuthDAO authDAO = new MemoryAuthDAO();
+        authDAO.createAuth(new AuthData("token", "brian"));
+        MemoryGameDAO gameDAO = new MemoryGameDAO();
+        int slowGameID = gameDAO.createGame(new GameData(0, null, null, "slow game", null));
+        int otherGameID = gameDAO.createGame(new GameData(0, null, null, "other game", null));
+        WsRequestHandler handler = newHandler(authDAO, gameDAO, 2);
+        Assertions.assertNotEquals(slowGameID % 2, otherGameID % 2);
+
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch slowStarted = new CountDownLatch(1);
+        Session slow = fakeSession(frame -> slowStarted.countDown(), callback -> {
+            awaitQuietly(release);
+            callback.writeSuccess();
+        });
+        CountDownLatch otherLoaded = new CountDownLatch(1);
+        Session other = fakeSession(frame -> otherLoaded.countDown());
+        try {
+            handler.submit(slow, new ConnectCommand(UserGameCommand.CommandType.CONNECT, "token", slowGameID,
+                    null, false));
+            Assertions.assertTrue(slowStarted.await(5, TimeUnit.SECONDS));
+            handler.submit(other, new ConnectCommand(UserGameCommand.CommandType.CONNECT, "token", otherGameID,
+                    null, false));
+            Assertions.assertTrue(otherLoaded.await(5, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+            handler.shutdown();
+        }
+    }
+
+    @Test
+    void lanesKeepGoingAfterAnError() throws Exception {
+        GameLanes lanes = new GameLanes(1);
+        CountDownLatch ran = new CountDownLatch(1);
+        lanes.execute(1, () -> {
+            throw new StackOverflowError("a command that blew up");
+        });
+        lanes.execute(1, ran::countDown);
+        Assertions.assertTrue(ran.await(5, TimeUnit.SECONDS));
+        lanes.shutdown();
+    }
+
+    private static WsRequestHandler newHandler(MemoryAuthDAO authDAO, MemoryGameDAO gameDAO, int laneCount) {
+        AuthHandler authHandler = new AuthHandler(authDAO);
+        return new WsRequestHandler(authHandler, new GameHandler(gameDAO, authHandler), new InProcessBackplane(),
+                false, laneCount);
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    static MoveMade someMove() {
+        return new MoveMade(new ChessMove(new ChessPosition(2, 5), new ChessPosition(4, 5), null), 1,
+                MoveMade.Status.NONE);
+    }
+
+    // an open session whose sends finish right away and are counted
+    static Session fakeSession(AtomicInteger sent) {
+        return fakeSession(frame -> sent.incrementAndGet());
+    }
+
+    // frames come out as a String for text and a ByteBuffer for binary
+    static Session fakeSession(Consumer<Object> sent) {
+        return fakeSession(sent, WriteCallback::writeSuccess);
+    }
+
+    // counts close calls, everything else goes to session
+    static Session countingCloses(Session session, AtomicInteger closes) {
+        return (Session) Proxy.newProxyInstance(BrianHandlerTests.class.getClassLoader(),
+                new Class<?>[]{Session.class}, (proxy, method, args) -> {
+                    if (method.getName().equals("close")) {
+                        closes.incrementAndGet();
+                        return null;
+                    }
+                    return method.invoke(session, args);
+                });
+    }
+
+    // each send's callback goes to finish, which can hold on to it to leave the send unfinished
+    static Session fakeSession(Consumer<Object> sent, Consumer<WriteCallback> finish) {
+        RemoteEndpoint remote = (RemoteEndpoint) Proxy.newProxyInstance(BrianHandlerTests.class.getClassLoader(),
+                new Class<?>[]{RemoteEndpoint.class}, (proxy, method, args) -> {
+                    boolean isSend = method.getName().equals("sendString") || method.getName().equals("sendBytes");
+                    if (isSend && args.length == 2) {
+                        sent.accept(args[0]);
+                        finish.accept((WriteCallback) args[1]);
+                    }
+                    return null;
+                });
+        return (Session) Proxy.newProxyInstance(BrianHandlerTests.class.getClassLoader(),
+                new Class<?>[]{Session.class}, (proxy, method, args) -> switch (method.getName()) {
+                    case "isOpen" -> true;
+                    case "getRemote" -> remote;
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    case "equals" -> proxy == args[0];
+                    case "toString" -> "fake session";
+                    default -> null;
+                });
+    }
+}
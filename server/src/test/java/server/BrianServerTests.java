@@ -0,0 +1,102 @@
+package server;
+
+import io.javalin.Javalin;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.ThreadPool;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+public class BrianServerTests {
+
+    @AfterEach
+    void clearSettings() {
+        System.clearProperty("chess.threads.virtual");
+        System.clearProperty("chess.http.maxThreads");
+        System.clearProperty("chess.http.minThreads");
+        System.clearProperty("chess.storage");
+    }
+
+    @Test
+    void virtualThreadsRunHandlers() throws Exception {
+        System.setProperty("chess.threads.virtual", "true");
+        Assertions.assertEquals("virtual", threadHandlingARequest());
+    }
+
+    @Test
+    void threadPoolUsesTheConfiguredSizes() throws Exception {
+        System.setProperty("chess.http.maxThreads", "40");
+        System.setProperty("chess.http.minThreads", "3");
+        ThreadPool[] threadPool = new ThreadPool[1];
+        Javalin.create(config -> {
+            Server.configureThreads(config);
+            threadPool[0] = config.jetty.threadPool;
+        });
+        QueuedThreadPool queuedThreadPool = Assertions.assertInstanceOf(QueuedThreadPool.class, threadPool[0]);
+        Assertions.assertEquals(40, queuedThreadPool.getMaxThreads());
+        Assertions.assertEquals(3, queuedThreadPool.getMinThreads());
+
+        Assertions.assertEquals("JettyServerThreadPool", threadHandlingARequest());
+    }
+
+    @Test
+    void webSocketsAgreeToPermessageDeflate() throws Exception {
+        System.setProperty("chess.storage", "memory");
+        Server server = new Server();
+        int port = server.run(0);
+        try (Socket socket = new Socket("localhost", port)) {
+            String upgrade = "GET /ws HTTP/1.1\r\n" +
+                    "Host: localhost:" + port + "\r\n" +
+                    "Upgrade: websocket\r\n" +
+                    "Connection: Upgrade\r\n" +
+                    "Sec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\n" +
+                    "Sec-WebSocket-Version: 13\r\n" +
+                    "Sec-WebSocket-Extensions: permessage-deflate\r\n\r\n";
+            socket.getOutputStream().write(upgrade.getBytes(StandardCharsets.US_ASCII));
+            BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+            Assertions.assertTrue(reader.readLine().startsWith("HTTP/1.1 101"));
+            List<String> extensions = new ArrayList<>();
+            String header;
+            while ((header = reader.readLine()) != null && !header.isEmpty()) {
+                if (header.toLowerCase(Locale.ROOT).startsWith("sec-websocket-extensions:")) {
+                    extensions.add(header);
+                }
+            }
+            Assertions.assertEquals(1, extensions.size());
+            Assertions.assertTrue(extensions.getFirst().contains("permessage-deflate"));
+        } finally {
+            server.stop();
+        }
+    }
+
+    // "virtual", or the name of the platform thread's pool
+    private static String threadHandlingARequest() throws Exception {
+        Javalin javalin = Javalin.create(Server::configureThreads)
+                .get("/thread", ctx -> {
+                    Thread thread = Thread.currentThread();
+                    ctx.result(thread.isVirtual() ? "virtual" : thread.getName().replaceAll("-\\d+$", ""));
+                })
+                .start(0);
+        try {
+            HttpResponse<String> response = HttpClient.newHttpClient().send(
+                    HttpRequest.newBuilder(URI.create("http://localhost:" + javalin.port() + "/thread")).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            return response.body();
+        } finally {
+            javalin.stop();
+        }
+    }
+}
@@ -6,7 +6,15 @@ import org.junit.jupiter.api.Test;
 import model.*;
 import server.ResponseException;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class BrianServiceTests {
 
@@ -23,7 +31,7 @@ public class BrianServiceTests {
         UserData userData1 = new UserData("brian", "abc123", "me@mail.com");
         userService.register(userData1);
         UserData userData2 = new UserData("brian", "newpw", "new@gmail.com");
-        Assertions.assertThrows(ResponseException.class, () -> userService.register(userData2));
+        Assertions.assertThrows(AlreadyTakenException.class, () -> userService.register(userData2));
     }
 
     @Test
@@ -51,6 +59,33 @@ public class BrianServiceTests {
         Assertions.assertThrows(DataAccessException.class, () -> userService.getUser("brian"));
     }
 
+    @Test
+    void registerStoresAHashAndLoginChecksIt() throws ResponseException, DataAccessException {
+        UserService userService = new UserService(new MemoryUserDAO());
+        userService.register(new UserData("brian", "abc123", "me@mail.com"));
+        Assertions.assertNotEquals("abc123", userService.getUser("brian").password());
+        Assertions.assertEquals("brian", userService.login("brian", "abc123").username());
+        Assertions.assertThrows(DataAccessException.class, () -> userService.login("brian", "wrong"));
+    }
+
+    @Test
+    void fullWorkerPoolRejectsRightAway() throws Exception {
+        WorkerPool workerPool = new WorkerPool("test", 1, 1);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            CompletableFuture<Boolean> running = workerPool.submit(() -> release.await(5, TimeUnit.SECONDS));
+            CompletableFuture<Boolean> queued = workerPool.submit(() -> true);
+            Assertions.assertThrows(RejectedExecutionException.class, () -> workerPool.submit(() -> true));
+
+            release.countDown();
+            Assertions.assertTrue(running.get(5, TimeUnit.SECONDS));
+            Assertions.assertTrue(queued.get(5, TimeUnit.SECONDS));
+        }
+        finally {
+            workerPool.shutdown();
+        }
+    }
+
     @Test
     void generateToken() {
         String token = AuthService.generateToken();
@@ -106,7 +141,146 @@ public class BrianServiceTests {
     }
 
     @Test
-    void successfulCreateGame() throws ResponseException {
+    void cachedAuthSkipsTheDAOUntilItExpires() throws DataAccessException, ResponseException {
+        MemoryAuthDAO authDAO = new MemoryAuthDAO();
+        AtomicLong now = new AtomicLong();
+        AuthService authService = new AuthService(authDAO, null, now::get);
+        AuthData authData = new AuthData(AuthService.generateToken(), "brian");
+        authService.createAuth(authData);
+        authService.getAuth(authData.authToken());
+
+        // removed behind the service's back, so only the cache still knows about it
+        authDAO.deleteAuth(authData.authToken());
+        Assertions.assertEquals(authData, authService.getAuth(authData.authToken()));
+
+        now.addAndGet(AuthService.TTL_MILLIS);
+        Assertions.assertThrows(DataAccessException.class, () -> authService.getAuth(authData.authToken()));
+    }
+
+    @Test
+    void deleteAuthInvalidatesTheCache() throws DataAccessException, ResponseException {
+        AuthService authService = new AuthService(new MemoryAuthDAO());
+        AuthData authData = new AuthData(AuthService.generateToken(), "brian");
+        authService.createAuth(authData);
+        authService.getAuth(authData.authToken());
+        authService.deleteAuth(authData.authToken());
+        Assertions.assertThrows(DataAccessException.class, () -> authService.getAuth(authData.authToken()));
+    }
+
+    @Test
+    void lookupDuringALogoutDoesNotCacheTheToken() throws Exception {
+        AuthData authData = new AuthData(AuthService.generateToken(), "brian");
+        List<AuthService> services = new ArrayList<>();
+        // another request misses the cache and reads the token while the logout's delete is still running
+        MemoryAuthDAO authDAO = new MemoryAuthDAO() {
+            @Override
+            public void deleteAuth(String authToken) throws ResponseException {
+                try {
+                    Assertions.assertEquals(authData, services.getFirst().getAuth(authToken));
+                } catch (DataAccessException ex) {
+                    Assertions.fail(ex);
+                }
+                super.deleteAuth(authToken);
+            }
+        };
+        AuthService authService = new AuthService(authDAO);
+        services.add(authService);
+
+        authService.createAuth(authData);
+        authService.deleteAuth(authData.authToken());
+        Assertions.assertThrows(DataAccessException.class, () -> authService.getAuth(authData.authToken()));
+
+        authService.createAuth(authData);
+        authService.deleteAuthAsync(authData.authToken()).get(5, TimeUnit.SECONDS);
+        Assertions.assertThrows(DataAccessException.class, () -> authService.getAuth(authData.authToken()));
+    }
+
+    @Test
+    void unknownTokensAreRememberedBriefly() throws DataAccessException, ResponseException {
+        MemoryAuthDAO authDAO = new MemoryAuthDAO();
+        AtomicLong now = new AtomicLong();
+        AuthService authService = new AuthService(authDAO, null, now::get);
+        Assertions.assertThrows(DataAccessException.class, () -> authService.getAuth("abc123"));
+
+        authDAO.createAuth(new AuthData("abc123", "brian"));
+        Assertions.assertThrows(DataAccessException.class, () -> authService.getAuth("abc123"));
+
+        now.addAndGet(AuthService.NEGATIVE_TTL_MILLIS);
+        Assertions.assertEquals("brian", authService.getAuth("abc123").username());
+    }
+
+    @Test
+    void signedTokensVerifyWithoutTheDAO() throws DataAccessException, ResponseException {
+        AtomicLong now = new AtomicLong(1000);
+        TokenSigner signer = new TokenSigner("a signing key that is at least 32 bytes".getBytes(), 60_000, now::get);
+        AuthService authService = new AuthService(new MemoryAuthDAO(), signer);
+        AuthData authData = authService.createAuth("brian");
+        Assertions.assertEquals(authData, authService.getAuth(authData.authToken()));
+        // checked on the calling thread, so the future is already done
+        CompletableFuture<AuthData> verified = authService.getAuthAsync(authData.authToken());
+        Assertions.assertTrue(verified.isDone());
+        Assertions.assertEquals(authData, verified.join());
+        Assertions.assertTrue(authService.getAuthAsync("x" + authData.authToken()).isCompletedExceptionally());
+
+        // a token from a different key, or one that's been edited, doesn't verify
+        TokenSigner otherSigner = new TokenSigner("some other key that is at least 32 bytes".getBytes(), 60_000, now::get);
+        String forged = otherSigner.issue("brian").authToken();
+        Assertions.assertThrows(DataAccessException.class, () -> authService.getAuth(forged));
+        String tampered = "x" + authData.authToken();
+        Assertions.assertThrows(DataAccessException.class, () -> authService.getAuth(tampered));
+
+        now.addAndGet(60_000);
+        Assertions.assertThrows(DataAccessException.class, () -> authService.getAuth(authData.authToken()));
+    }
+
+    @Test
+    void signedTokensCanBeRevoked() throws DataAccessException, ResponseException {
+        TokenSigner signer = new TokenSigner("a signing key that is at least 32 bytes".getBytes(), 60_000,
+                System::currentTimeMillis);
+        AuthService authService = new AuthService(new MemoryAuthDAO(), signer);
+        AuthData loggedOut = authService.createAuth("brian");
+        AuthData stillLoggedIn = authService.createAuth("brian");
+        authService.deleteAuth(loggedOut.authToken());
+        Assertions.assertThrows(DataAccessException.class, () -> authService.getAuth(loggedOut.authToken()));
+        Assertions.assertEquals("brian", authService.getAuth(stillLoggedIn.authToken()).username());
+
+        authService.clear();
+        Assertions.assertThrows(DataAccessException.class, () -> authService.getAuth(stillLoggedIn.authToken()));
+        AuthData afterClear = authService.createAuth("brian");
+        Assertions.assertEquals("brian", authService.getAuth(afterClear.authToken()).username());
+    }
+
+    @Test
+    void signedTokenRevocationsReachOtherServers() throws DataAccessException, ResponseException {
+        AtomicLong now = new AtomicLong(1000);
+        byte[] key = "a signing key that is at least 32 bytes".getBytes();
+        TokenSigner signerA = new TokenSigner(key, 60_000, now::get);
+        TokenSigner signerB = new TokenSigner(key, 60_000, now::get);
+        // what shareRevocations does over the backplane
+        signerA.setRevocationListener(new TokenSigner.RevocationListener() {
+            public void revoked(String token) {signerB.acceptRevocation(token);}
+
+            public void revokedAll(long notBefore) {signerB.acceptRevokeAll(notBefore);}
+        });
+        AuthService nodeA = new AuthService(new MemoryAuthDAO(), signerA);
+        AuthService nodeB = new AuthService(new MemoryAuthDAO(), signerB);
+
+        AuthData loggedOut = nodeA.createAuth("brian");
+        AuthData sameMillisecond = nodeA.createAuth("brian");
+        Assertions.assertEquals("brian", nodeB.getAuth(loggedOut.authToken()).username());
+        nodeA.deleteAuth(loggedOut.authToken());
+        Assertions.assertThrows(DataAccessException.class, () -> nodeB.getAuth(loggedOut.authToken()));
+        Assertions.assertEquals("brian", nodeB.getAuth(sameMillisecond.authToken()).username());
+
+        // a token issued in the same millisecond as the clear is revoked too, and the next one isn't
+        nodeA.clear();
+        Assertions.assertThrows(DataAccessException.class, () -> nodeB.getAuth(sameMillisecond.authToken()));
+        AuthData afterClear = nodeB.createAuth("brian");
+        Assertions.assertEquals("brian", nodeA.getAuth(afterClear.authToken()).username());
+    }
+
+    @Test
+    void successfulCreateGame() throws DataAccessException, ResponseException {
         GameService gameService = new GameService(new MemoryGameDAO());
         GameData gameData = new GameData(0, null, null, "gamename", null);
         int gameID = gameService.createGame(gameData);
@@ -114,7 +288,7 @@ public class BrianServiceTests {
     }
 
     @Test
-    void successfulListGames() throws ResponseException {
+    void successfulListGames() throws DataAccessException, ResponseException {
         GameService gameService = new GameService(new MemoryGameDAO());
         GameData gameData = new GameData(0, null, null, "gamename", null);
         gameService.createGame(gameData);
@@ -132,7 +306,7 @@ public class BrianServiceTests {
     }
 
     @Test
-    void unsuccessfulGetGame() throws ResponseException {
+    void unsuccessfulGetGame() throws DataAccessException, ResponseException {
         GameService gameService = new GameService(new MemoryGameDAO());
         GameData gameData = new GameData(0, null, null, "gamename", null);
         gameService.createGame(gameData);
@@ -160,7 +334,7 @@ public class BrianServiceTests {
     }
 
     @Test
-    void unsuccessfulUpdateGame() throws ResponseException {
+    void unsuccessfulUpdateGame() throws DataAccessException, ResponseException {
         GameService gameService = new GameService(new MemoryGameDAO());
         GameData gameData = new GameData(0, null, null, "gamename", null);
         int gameID = gameService.createGame(gameData);
@@ -168,11 +342,28 @@ public class BrianServiceTests {
     }
 
     @Test
-    void clearGame() throws ResponseException {
+    void clearGame() throws DataAccessException, ResponseException {
         GameService gameService = new GameService(new MemoryGameDAO());
         GameData gameData = new GameData(0, null, null, "gamename", null);
         int gameID = gameService.createGame(gameData);
         gameService.clear();
         Assertions.assertThrows(DataAccessException.class, () -> gameService.getGame(gameID));
     }
-}
\ No newline at end of file
+
+    @Test
+    void asyncCallsFailWithTheDAOsException() throws Exception {
+        GameService gameService = new GameService(new MemoryGameDAO());
+        int gameID = gameService.createGameAsync(new GameData(0, null, null, "gamename", null)).get();
+        gameService.updateGameAsync(new JoinData("WHITE", gameID), "brian").get();
+        Assertions.assertEquals("brian", gameService.getGame(gameID).whiteUsername());
+
+        CompletableFuture<Void> taken = gameService.updateGameAsync(new JoinData("WHITE", gameID), "notbrian");
+        ExecutionException ex = Assertions.assertThrows(ExecutionException.class, taken::get);
+        Assertions.assertInstanceOf(AlreadyTakenException.class, ex.getCause());
+
+        AuthService authService = new AuthService(new MemoryAuthDAO());
+        CompletableFuture<AuthData> unknown = authService.getAuthAsync("abc123");
+        ex = Assertions.assertThrows(ExecutionException.class, unknown::get);
+        Assertions.assertInstanceOf(DataAccessException.class, ex.getCause());
+    }
+}
@@ -17,6 +17,8 @@ public class ChessGame {
     private ChessPosition whiteKingLocation = new ChessPosition(1, 5);
     private ChessPosition blackKingLocation = new ChessPosition(8, 5);
     private boolean isFinished;
+    // how many moves have been made, so a client applying moves one at a time can tell when it missed one
+    private int moveCount = 0;
     // have some way of tracking moves for en passant?
     // and hold on to some boolean that says if the king or rooks have moved (for castling)?
     // private boolean canCastleKingside = true;
@@ -37,6 +39,14 @@ public class ChessGame {
         return this.isFinished;
     }
 
+    public int getMoveCount() {
+        return this.moveCount;
+    }
+
+    public void setMoveCount(int moveCount) {
+        this.moveCount = moveCount;
+    }
+
     /**
      * @return Which team's turn it is
      */
@@ -74,6 +84,7 @@ public class ChessGame {
         Collection<ChessMove> potentialMoves = piece.pieceMoves(board, startPosition);
         ChessBoard initialBoard = board.clone();
         TeamColor initialTeamTurn = teamTurn;
+        int initialMoveCount = moveCount;
 
         Collection<ChessMove> verifiedMoves = new ArrayList<>();
         for (ChessMove move : potentialMoves) {
@@ -86,6 +97,7 @@ public class ChessGame {
             } finally {
                 this.board = initialBoard.clone();
                 setTeamTurn(initialTeamTurn);
+                moveCount = initialMoveCount;
                 if (piece.getPieceType() == ChessPiece.PieceType.KING) {updateKingPositions();}
             }
         }
@@ -113,6 +125,7 @@ public class ChessGame {
         if (piece.getPieceType() == ChessPiece.PieceType.KING) {updateKingPositions();}
         if (isInCheck(teamTurn)) {throw new InvalidMoveException("You cannot make a move that leaves your king in check");}
         switchTeamTurn();
+        moveCount++;
     }
 
     /**
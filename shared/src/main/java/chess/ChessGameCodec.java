@@ -0,0 +1,103 @@
+package chess;
+
+/**
+ * Converts a ChessGame to and from a compact binary form for storage.
+ * <p>
+ * Layout (version 2, 36 bytes):
+ * <ul>
+ *     <li>byte 0: format version</li>
+ *     <li>byte 1: flags (bit 0 set if it is black's turn, bit 1 set if the game is finished)</li>
+ *     <li>bytes 2-33: 64 nibbles, one per square, starting at a1 and going across each row.
+ *     0 is an empty square, otherwise the low 3 bits are the piece type (ordinal + 1) and bit 3 is set for black.
+ *     Decoding rejects the nibbles that aren't a piece (7, 8 and 15)</li>
+ *     <li>bytes 34-35: the move count, unsigned and big-endian</li>
+ * </ul>
+ * Version 1 is the same without the move count, and still decodes, as a game with a move count of 0.
+ * The version byte is never '{', so encoded games can be told apart from the old JSON text.
+ */
+public final class ChessGameCodec {
+
+    public static final byte VERSION = 2;
+    private static final int HEADER_SIZE = 2;
+    private static final int VERSION_1_SIZE = HEADER_SIZE + 32;
+    private static final int ENCODED_SIZE = VERSION_1_SIZE + 2;
+    private static final int MAX_MOVE_COUNT = 0xFFFF;
+
+    private static final int FLAG_BLACK_TURN = 1;
+    private static final int FLAG_FINISHED = 1 << 1;
+    private static final int BLACK_BIT = 1 << 3;
+
+    // pieces have no state besides color and type, so decoded boards can share them
+    private static final ChessPiece[] PIECES = new ChessPiece[16];
+
+    static {
+        for (ChessPiece.PieceType type : ChessPiece.PieceType.values()) {
+            PIECES[type.ordinal() + 1] = new ChessPiece(ChessGame.TeamColor.WHITE, type);
+            PIECES[(type.ordinal() + 1) | BLACK_BIT] = new ChessPiece(ChessGame.TeamColor.BLACK, type);
+        }
+    }
+
+    private ChessGameCodec() {}
+
+    public static byte[] encode(ChessGame game) {
+        byte[] bytes = new byte[ENCODED_SIZE];
+        bytes[0] = VERSION;
+
+        int flags = 0;
+        if (game.getTeamTurn() == ChessGame.TeamColor.BLACK) {flags |= FLAG_BLACK_TURN;}
+        if (game.getIsFinished()) {flags |= FLAG_FINISHED;}
+        bytes[1] = (byte) flags;
+
+        ChessPiece[][] squares = game.getBoard().squares;
+        for (int square = 0; square < 64; square++) {
+            int nibble = encodePiece(squares[square / 8][square % 8]);
+            // even squares go in the high nibble, odd squares in the low nibble
+            if (square % 2 == 0) {bytes[HEADER_SIZE + square / 2] = (byte) (nibble << 4);}
+            else {bytes[HEADER_SIZE + square / 2] |= (byte) nibble;}
+        }
+
+        int moveCount = Math.min(game.getMoveCount(), MAX_MOVE_COUNT);
+        bytes[VERSION_1_SIZE] = (byte) (moveCount >> 8);
+        bytes[VERSION_1_SIZE + 1] = (byte) moveCount;
+        return bytes;
+    }
+
+    public static ChessGame decode(byte[] bytes) {
+        if (bytes == null || bytes.length < VERSION_1_SIZE) {
+            throw new IllegalArgumentException("Encoded game is too short");
+        }
+        if (bytes[0] != 1 && bytes[0] != VERSION) {
+            throw new IllegalArgumentException("Unknown game encoding version " + bytes[0]);
+        }
+        if (bytes[0] == VERSION && bytes.length < ENCODED_SIZE) {
+            throw new IllegalArgumentException("Encoded game is too short");
+        }
+
+        ChessBoard board = new ChessBoard();
+        for (int square = 0; square < 64; square++) {
+            int packed = bytes[HEADER_SIZE + square / 2];
+            int nibble = (square % 2 == 0) ? (packed >> 4) & 0xF : packed & 0xF;
+            if (nibble != 0 && PIECES[nibble] == null) {
+                throw new IllegalArgumentException("Unknown piece " + nibble + " on square " + square);
+            }
+            board.squares[square / 8][square % 8] = PIECES[nibble];
+        }
+
+        ChessGame game = new ChessGame();
+        game.setBoard(board);
+        int flags = bytes[1];
+        game.setTeamTurn(((flags & FLAG_BLACK_TURN) != 0) ? ChessGame.TeamColor.BLACK : ChessGame.TeamColor.WHITE);
+        game.setIsFinished((flags & FLAG_FINISHED) != 0);
+        if (bytes[0] == VERSION) {
+            game.setMoveCount(((bytes[VERSION_1_SIZE] & 0xFF) << 8) | (bytes[VERSION_1_SIZE + 1] & 0xFF));
+        }
+        return game;
+    }
+
+    private static int encodePiece(ChessPiece piece) {
+        if (piece == null) {return 0;}
+        int nibble = piece.getPieceType().ordinal() + 1;
+        if (piece.getTeamColor() == ChessGame.TeamColor.BLACK) {nibble |= BLACK_BIT;}
+        return nibble;
+    }
+}
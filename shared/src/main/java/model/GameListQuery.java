@@ -0,0 +1,9 @@
+package model;
+
+/**
+ * Which games a list request wants back. A limit of 0 means no limit, and a null player or finished means don't filter on it.
+ */
+public record GameListQuery (int afterGameID, int limit, String player, boolean openSeatsOnly, Boolean finished) {
+
+    public static final GameListQuery ALL = new GameListQuery(0, 0, null, false, null);
+}
@@ -0,0 +1,246 @@
+package websocket;
+
+import chess.ChessGameCodec;
+import chess.ChessMove;
+import chess.ChessPiece;
+import chess.ChessPosition;
+import websocket.commands.ConnectCommand;
+import websocket.commands.MakeMoveCommand;
+import websocket.commands.UserGameCommand;
+import websocket.messages.LoadGame;
+import websocket.messages.MoveMade;
+import websocket.messages.Notification;
+import websocket.messages.ServerMessage;
+import websocket.messages.ServerMessageError;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The binary form of the WebSocket commands and server messages, for clients that would rather not send and parse
+ * JSON. A client switches to it by sending a binary frame, and from then on the server answers in binary too.
+ * <p>
+ * Every frame starts with a type byte, the ordinal of its CommandType or ServerMessageType. Then:
+ * <ul>
+ *     <li>commands: the game id as a varint and the auth token as a string, then for CONNECT a flags byte
+ *     (bit 0 for move updates) and the team color, and for MAKE_MOVE the packed move and the team color</li>
+ *     <li>LOAD_GAME: the game in ChessGameCodec's format</li>
+ *     <li>MOVE_MADE: the packed move, the move count as a varint, and the status ordinal as a byte</li>
+ *     <li>NOTIFICATION and ERROR: the message as a string</li>
+ * </ul>
+ * A BATCH frame (type 0x7F) holds several server messages, each as a varint length and then the message's own
+ * frame. The server only sends these to binary sessions, with ws.batchMessages on.
+ * <p>
+ * Varints are unsigned LEB128. Strings are a varint of the UTF-8 length plus one, then the bytes, so 0 is null.
+ * A packed move is 2 big-endian bytes: the start square in the top 6 bits, then the end square, then the
+ * promotion piece (0 for none, otherwise ordinal + 1) in the low 4 bits. Squares count from a1 across each row.
+ */
+public final class BinaryProtocol {
+
+    public static final int BATCH = 0x7F;
+    private static final int FLAG_MOVE_UPDATES = 1;
+
+    private BinaryProtocol() {}
+
+    public static byte[] encodeCommand(UserGameCommand command) {
+        if (command.getGameID() == null || command.getGameID() < 0) {
+            throw new IllegalArgumentException("Commands need a game id");
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+        out.write(command.getCommandType().ordinal());
+        writeVarint(out, command.getGameID());
+        writeString(out, command.getAuthToken());
+        if (command instanceof ConnectCommand connect) {
+            out.write(connect.wantsMoveUpdates() ? FLAG_MOVE_UPDATES : 0);
+            writeString(out, connect.getTeamColor());
+        } else if (command instanceof MakeMoveCommand makeMove) {
+            writeMove(out, makeMove.getMove());
+            writeString(out, makeMove.getTeamColor());
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @return a ConnectCommand or MakeMoveCommand for those types, otherwise a plain UserGameCommand
+     * @throws IllegalArgumentException if the frame is cut short or has an unknown type
+     */
+    public static UserGameCommand decodeCommand(ByteBuffer frame) {
+        try {
+            UserGameCommand.CommandType type = enumAt(UserGameCommand.CommandType.values(), frame.get());
+            int gameID = readVarint(frame);
+            String authToken = readString(frame);
+            return switch (type) {
+                case CONNECT -> {
+                    boolean moveUpdates = (frame.get() & FLAG_MOVE_UPDATES) != 0;
+                    yield new ConnectCommand(type, authToken, gameID, readString(frame), moveUpdates);
+                }
+                case MAKE_MOVE -> {
+                    ChessMove move = readMove(frame);
+                    yield new MakeMoveCommand(authToken, gameID, move, readString(frame));
+                }
+                default -> new UserGameCommand(type, authToken, gameID);
+            };
+        } catch (BufferUnderflowException ex) {
+            throw new IllegalArgumentException("Command frame is too short");
+        }
+    }
+
+    public static byte[] encodeMessage(ServerMessage message) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+        out.write(message.getServerMessageType().ordinal());
+        switch (message) {
+            case LoadGame loadGame -> out.writeBytes(ChessGameCodec.encode(loadGame.getGame()));
+            case MoveMade moveMade -> {
+                writeMove(out, moveMade.getMove());
+                writeVarint(out, moveMade.getMoveCount());
+                out.write(moveMade.getStatus().ordinal());
+            }
+            case Notification notification -> writeString(out, notification.getMessage());
+            case ServerMessageError error -> writeString(out, error.getMessage());
+            default -> throw new IllegalArgumentException("No binary form for " + message.getClass().getSimpleName());
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @throws IllegalArgumentException if the frame is cut short or has an unknown type
+     */
+    public static ServerMessage decodeMessage(ByteBuffer frame) {
+        try {
+            ServerMessage.ServerMessageType type = enumAt(ServerMessage.ServerMessageType.values(), frame.get());
+            return switch (type) {
+                case LOAD_GAME -> {
+                    byte[] game = new byte[frame.remaining()];
+                    frame.get(game);
+                    yield new LoadGame(ChessGameCodec.decode(game));
+                }
+                case MOVE_MADE -> {
+                    ChessMove move = readMove(frame);
+                    int moveCount = readVarint(frame);
+                    yield new MoveMade(move, moveCount, enumAt(MoveMade.Status.values(), frame.get()));
+                }
+                case NOTIFICATION -> new Notification(readString(frame));
+                case ERROR -> new ServerMessageError(readString(frame));
+            };
+        } catch (BufferUnderflowException ex) {
+            throw new IllegalArgumentException("Server message frame is too short");
+        }
+    }
+
+    /**
+     * @param frames server messages already in their binary form
+     */
+    public static byte[] encodeBatch(List<byte[]> frames) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64 * frames.size());
+        out.write(BATCH);
+        for (byte[] frame : frames) {
+            writeVarint(out, frame.length);
+            out.writeBytes(frame);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Decodes either a single server message or a BATCH of them.
+     * @throws IllegalArgumentException if a frame is cut short or has an unknown type
+     */
+    public static List<ServerMessage> decodeMessages(ByteBuffer frame) {
+        if (!frame.hasRemaining() || frame.get(frame.position()) != BATCH) {
+            return List.of(decodeMessage(frame));
+        }
+        frame.get();
+        List<ServerMessage> messages = new ArrayList<>();
+        try {
+            while (frame.hasRemaining()) {
+                int length = readVarint(frame);
+                if (length < 0 || length > frame.remaining()) {
+                    throw new IllegalArgumentException("Batched message runs past the end of the frame");
+                }
+                ByteBuffer message = frame.slice(frame.position(), length);
+                frame.position(frame.position() + length);
+                messages.add(decodeMessage(message));
+            }
+        } catch (BufferUnderflowException ex) {
+            throw new IllegalArgumentException("Batch frame is too short");
+        }
+        return messages;
+    }
+
+    private static void writeMove(ByteArrayOutputStream out, ChessMove move) {
+        ChessPiece.PieceType promotion = move.getPromotionPiece();
+        int packed = square(move.getStartPosition()) << 10
+                | square(move.getEndPosition()) << 4
+                | ((promotion == null) ? 0 : promotion.ordinal() + 1);
+        out.write(packed >> 8);
+        out.write(packed);
+    }
+
+    private static ChessMove readMove(ByteBuffer frame) {
+        int packed = frame.getShort() & 0xFFFF;
+        int promotion = packed & 0xF;
+        return new ChessMove(position(packed >> 10), position((packed >> 4) & 0x3F),
+                (promotion == 0) ? null : enumAt(ChessPiece.PieceType.values(), promotion - 1));
+    }
+
+    private static int square(ChessPosition position) {
+        int row = position.getRow();
+        int col = position.getColumn();
+        if (row < 1 || row > 8 || col < 1 || col > 8) {
+            throw new IllegalArgumentException("Position " + position + " is off the board");
+        }
+        return (row - 1) * 8 + (col - 1);
+    }
+
+    private static ChessPosition position(int square) {
+        return new ChessPosition(square / 8 + 1, square % 8 + 1);
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarint(ByteBuffer frame) {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = frame.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {return value;}
+        }
+        throw new IllegalArgumentException("Varint is too long");
+    }
+
+    private static void writeString(ByteArrayOutputStream out, String value) {
+        if (value == null) {
+            writeVarint(out, 0);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarint(out, bytes.length + 1);
+        out.writeBytes(bytes);
+    }
+
+    private static String readString(ByteBuffer frame) {
+        int length = readVarint(frame) - 1;
+        if (length < 0) {return null;}
+        if (length > frame.remaining()) {throw new IllegalArgumentException("String runs past the end of the frame");}
+        byte[] bytes = new byte[length];
+        frame.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static <E extends Enum<E>> E enumAt(E[] values, int ordinal) {
+        if (ordinal < 0 || ordinal >= values.length) {
+            throw new IllegalArgumentException("Unknown " + values.getClass().getComponentType().getSimpleName()
+                    + " " + ordinal);
+        }
+        return values[ordinal];
+    }
+}
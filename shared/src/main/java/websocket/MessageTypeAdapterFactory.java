@@ -0,0 +1,177 @@
+package websocket;
+
+import chess.ChessGame;
+import chess.ChessMove;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import websocket.commands.ConnectCommand;
+import websocket.commands.MakeMoveCommand;
+import websocket.commands.UserGameCommand;
+import websocket.messages.LoadGame;
+import websocket.messages.MoveMade;
+import websocket.messages.Notification;
+import websocket.messages.ServerMessage;
+import websocket.messages.ServerMessageError;
+
+import java.io.IOException;
+
+/**
+ * Lets Gson read a UserGameCommand or ServerMessage straight into the right subclass, e.g. a MakeMoveCommand for
+ * a MAKE_MOVE, in one pass over the JSON. Without it, the type has to be read first and then the whole message
+ * parsed again as that type.
+ * <p>
+ * Only the base classes are handled here. Asking for a subclass, or writing anything, works the same as plain Gson.
+ */
+public class MessageTypeAdapterFactory implements TypeAdapterFactory {
+
+    // a Gson that reads commands and server messages this way
+    public static Gson newGson() {
+        return new GsonBuilder().registerTypeAdapterFactory(new MessageTypeAdapterFactory()).create();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+        if (type.getRawType() == UserGameCommand.class) {
+            return (TypeAdapter<T>) new CommandAdapter(gson, this);
+        }
+        if (type.getRawType() == ServerMessage.class) {
+            return (TypeAdapter<T>) new ServerMessageAdapter(gson, this);
+        }
+        return null;
+    }
+
+    // writes whatever the value really is, e.g. a LoadGame passed as a ServerMessage still gets its game
+    private abstract static class BaseAdapter<T> extends TypeAdapter<T> {
+        final Gson gson;
+        private final TypeAdapterFactory skipPast;
+        final TypeAdapter<String> strings;
+        final TypeAdapter<ChessMove> moves;
+
+        BaseAdapter(Gson gson, TypeAdapterFactory skipPast) {
+            this.gson = gson;
+            this.skipPast = skipPast;
+            this.strings = gson.getAdapter(String.class);
+            this.moves = gson.getAdapter(ChessMove.class);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void write(JsonWriter out, T value) throws IOException {
+            if (value == null) {
+                out.nullValue();
+                return;
+            }
+            TypeToken<T> runtimeType = (TypeToken<T>) TypeToken.get(value.getClass());
+            gson.getDelegateAdapter(skipPast, runtimeType).write(out, value);
+        }
+    }
+
+    private static final class CommandAdapter extends BaseAdapter<UserGameCommand> {
+        private final TypeAdapter<UserGameCommand.CommandType> commandTypes;
+        private final TypeAdapter<Integer> integers;
+        private final TypeAdapter<Boolean> booleans;
+
+        CommandAdapter(Gson gson, TypeAdapterFactory skipPast) {
+            super(gson, skipPast);
+            this.commandTypes = gson.getAdapter(UserGameCommand.CommandType.class);
+            this.integers = gson.getAdapter(Integer.class);
+            this.booleans = gson.getAdapter(Boolean.class);
+        }
+
+        @Override
+        public UserGameCommand read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            UserGameCommand.CommandType commandType = null;
+            String authToken = null;
+            Integer gameID = null;
+            String teamColor = null;
+            Boolean moveUpdates = null;
+            ChessMove move = null;
+
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "commandType" -> commandType = commandTypes.read(in);
+                    case "authToken" -> authToken = strings.read(in);
+                    case "gameID" -> gameID = integers.read(in);
+                    case "teamColor" -> teamColor = strings.read(in);
+                    case "moveUpdates" -> moveUpdates = booleans.read(in);
+                    case "move" -> move = moves.read(in);
+                    default -> in.skipValue();
+                }
+            }
+            in.endObject();
+
+            if (commandType == UserGameCommand.CommandType.CONNECT) {
+                return new ConnectCommand(commandType, authToken, gameID, teamColor, Boolean.TRUE.equals(moveUpdates));
+            }
+            if (commandType == UserGameCommand.CommandType.MAKE_MOVE) {
+                if (gameID == null) {throw new JsonParseException("MAKE_MOVE needs a gameID");}
+                return new MakeMoveCommand(authToken, gameID, move, teamColor);
+            }
+            return new UserGameCommand(commandType, authToken, gameID);
+        }
+    }
+
+    private static final class ServerMessageAdapter extends BaseAdapter<ServerMessage> {
+        private final TypeAdapter<ServerMessage.ServerMessageType> messageTypes;
+        private final TypeAdapter<ChessGame> games;
+        private final TypeAdapter<MoveMade.Status> statuses;
+
+        ServerMessageAdapter(Gson gson, TypeAdapterFactory skipPast) {
+            super(gson, skipPast);
+            this.messageTypes = gson.getAdapter(ServerMessage.ServerMessageType.class);
+            this.games = gson.getAdapter(ChessGame.class);
+            this.statuses = gson.getAdapter(MoveMade.Status.class);
+        }
+
+        @Override
+        public ServerMessage read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            ServerMessage.ServerMessageType messageType = null;
+            ChessGame game = null;
+            String message = null;
+            String errorMessage = null;
+            ChessMove move = null;
+            int moveCount = 0;
+            MoveMade.Status status = null;
+
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "serverMessageType" -> messageType = messageTypes.read(in);
+                    case "game" -> game = games.read(in);
+                    case "message" -> message = strings.read(in);
+                    case "errorMessage" -> errorMessage = strings.read(in);
+                    case "move" -> move = moves.read(in);
+                    case "moveCount" -> moveCount = in.nextInt();
+                    case "status" -> status = statuses.read(in);
+                    default -> in.skipValue();
+                }
+            }
+            in.endObject();
+
+            if (messageType == null) {throw new JsonParseException("Server message has no serverMessageType");}
+            return switch (messageType) {
+                case LOAD_GAME -> new LoadGame(game);
+                case MOVE_MADE -> new MoveMade(move, moveCount, status);
+                case NOTIFICATION -> new Notification(message);
+                case ERROR -> new ServerMessageError(errorMessage);
+            };
+        }
+    }
+}
@@ -3,13 +3,25 @@ package websocket.commands;
 public class ConnectCommand extends UserGameCommand {
 
     private final String teamColor;
+    // null or false to get a LOAD_GAME after every move, true for a MOVE_MADE instead
+    private final Boolean moveUpdates;
 
     public ConnectCommand(CommandType commandType, String authToken, Integer gameID, String teamColor) {
+        this(commandType, authToken, gameID, teamColor, false);
+    }
+
+    public ConnectCommand(CommandType commandType, String authToken, Integer gameID, String teamColor,
+                          boolean moveUpdates) {
         super(commandType, authToken, gameID);
         this.teamColor = teamColor;
+        this.moveUpdates = moveUpdates;
     }
 
     public String getTeamColor() {
         return this.teamColor;
     }
+
+    public boolean wantsMoveUpdates() {
+        return Boolean.TRUE.equals(this.moveUpdates);
+    }
 }
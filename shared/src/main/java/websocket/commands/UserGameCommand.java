@@ -24,7 +24,9 @@ public class UserGameCommand {
         CONNECT,
         MAKE_MOVE,
         LEAVE,
-        RESIGN
+        RESIGN,
+        // asks for a LOAD_GAME with the current board, e.g. after missing a MOVE_MADE
+        RESYNC
     }
 
     public CommandType getCommandType() {
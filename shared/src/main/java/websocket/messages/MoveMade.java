@@ -0,0 +1,38 @@
+package websocket.messages;
+
+import chess.ChessMove;
+
+/**
+ * Sent instead of a LOAD_GAME after each move, to clients that asked for it. The client makes the move on its
+ * own copy of the game, so the board doesn't have to be sent again.
+ * <p>
+ * moveCount is the game's move count after this move. If it isn't one more than the client's, the client missed
+ * something and should send a RESYNC.
+ */
+public class MoveMade extends ServerMessage {
+
+    public enum Status {
+        NONE,
+        CHECK,
+        CHECKMATE,
+        STALEMATE
+    }
+
+    private final ChessMove move;
+    private final int moveCount;
+    // for the team whose turn it is now
+    private final Status status;
+
+    public MoveMade(ChessMove move, int moveCount, Status status) {
+        super(ServerMessageType.MOVE_MADE);
+        this.move = move;
+        this.moveCount = moveCount;
+        this.status = status;
+    }
+
+    public ChessMove getMove() {return this.move;}
+
+    public int getMoveCount() {return this.moveCount;}
+
+    public Status getStatus() {return this.status;}
+}
@@ -14,7 +14,9 @@ public class ServerMessage {
     public enum ServerMessageType {
         LOAD_GAME,
         ERROR,
-        NOTIFICATION
+        NOTIFICATION,
+        // only sent to clients that asked for it when they connected, see ConnectCommand
+        MOVE_MADE
     }
 
     public ServerMessage(ServerMessageType type) {